@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the repository life cycle in {@link SvnTestSetup} and {@link CmsTestRepository}.
+ *
+ * The default backend is local file:// repositories in a temp folder, so no Apache is needed.
+ * Use <code>-p backend=dav</code> on a machine with the svn test server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProvisioningBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Backend {
+
+		@Param({"local"})
+		public String backend;
+
+		SvnTestSetup setup;
+		File parent = null;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			if ("local".equals(backend)) {
+				parent = Files.createTempDirectory("cms-testing-bench").toFile();
+				System.setProperty(SvnTestSetup.PROPERTY_PARENT_PATH, parent.getAbsolutePath());
+			}
+			setup = SvnTestSetup.getInstance();
+			setup.setLocal("local".equals(backend));
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			setup.tearDown();
+			if (parent != null) {
+				FileUtils.deleteQuietly(parent);
+			}
+		}
+
+	}
+
+	/**
+	 * Per thread, because tearDown only removes the current thread's repositories.
+	 */
+	@State(Scope.Thread)
+	public static class Created {
+
+		@TearDown(Level.Invocation)
+		public void tearDown() {
+			SvnTestSetup.getInstance().tearDown();
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class Loaded {
+
+		@Param({"small", "medium", "large"})
+		public String size;
+
+		@Param({"false", "true"})
+		public boolean dumpCache;
+
+		byte[] dump;
+		CmsTestRepository repo;
+		File cache = null;
+
+		@Setup(Level.Trial)
+		public void generate(Backend backend) throws IOException {
+			int revisions = "small".equals(size) ? 10 : "medium".equals(size) ? 100 : 1000;
+			dump = generateDump(revisions, 1024);
+			if (dumpCache) {
+				cache = Files.createTempDirectory("cms-testing-bench-cache").toFile();
+				backend.setup.setDumpCache(cache);
+			} else {
+				backend.setup.setDumpCache(null);
+			}
+		}
+
+		@Setup(Level.Invocation)
+		public void create(Backend backend) {
+			repo = backend.setup.getRepository();
+		}
+
+		@TearDown(Level.Invocation)
+		public void tearDown(Backend backend) {
+			backend.setup.tearDown();
+		}
+
+		@TearDown(Level.Trial)
+		public void deleteCache(Backend backend) {
+			backend.setup.setDumpCache(null);
+			if (cache != null) {
+				FileUtils.deleteQuietly(cache);
+			}
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class Connected {
+
+		CmsTestRepository repo;
+
+		@Setup(Level.Trial)
+		public void create(Backend backend) {
+			repo = backend.setup.getRepository();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown(Backend backend) {
+			backend.setup.tearDown();
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class TornDown {
+
+		@Param({"false", "true"})
+		public boolean keep;
+
+		@Setup(Level.Invocation)
+		public void create(Backend backend) {
+			backend.setup.getRepository().setKeep(keep);
+		}
+
+	}
+
+	@Benchmark
+	public CmsTestRepository getRepositoryGenerated(Backend backend, Created created) {
+		return backend.setup.getRepository();
+	}
+
+	@Benchmark
+	public CmsTestRepository getRepositoryNamed(Backend backend, Created created) {
+		return backend.setup.getRepository("benchNamed");
+	}
+
+	@Benchmark
+	public CmsTestRepository load(Loaded loaded) {
+		return loaded.repo.load(new ByteArrayInputStream(loaded.dump));
+	}
+
+	@Benchmark
+	public CmsTestRepository connect(Backend backend, Connected connected) {
+		return backend.setup.connect(connected.repo.getAdminPath(), connected.repo.getUrl());
+	}
+
+	@Benchmark
+	public void tearDown(Backend backend, TornDown tornDown) {
+		backend.setup.tearDown();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Threads(1)
+	public void provisioningThreads1(Backend backend) {
+		provisioningCycle(backend);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Threads(2)
+	public void provisioningThreads2(Backend backend) {
+		provisioningCycle(backend);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Threads(4)
+	public void provisioningThreads4(Backend backend) {
+		provisioningCycle(backend);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Threads(8)
+	public void provisioningThreads8(Backend backend) {
+		provisioningCycle(backend);
+	}
+
+	private void provisioningCycle(Backend backend) {
+		backend.setup.getRepository();
+		backend.setup.tearDown();
+	}
+
+	/**
+	 * @param revisions number of revisions, each adding one file
+	 * @param fileSize bytes per file
+	 * @return dumpfile in svnadmin dump format version 2
+	 */
+	static byte[] generateDump(int revisions, int fileSize) throws IOException {
+		StringBuilder content = new StringBuilder();
+		while (content.length() < fileSize) {
+			content.append("Benchmark content line.\n");
+		}
+		byte[] text = content.substring(0, fileSize).getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DumpfileBuilder dump = new DumpfileBuilder(out).uuid("6d1b1a6e-0a3c-4e4e-9c4f-1f2c3d4e5f60");
+		for (int r = 1; r <= revisions; r++) {
+			dump.revision("Benchmark revision " + r).revprop("svn:author", "bench");
+			dump.addFile("file" + r + ".txt", text);
+		}
+		dump.close();
+		return out.toByteArray();
+	}
+
+}
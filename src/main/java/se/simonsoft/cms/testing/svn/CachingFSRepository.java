@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.OutputStream;
+
+import org.tmatesoft.svn.core.ISVNDirEntryHandler;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepository;
+import org.tmatesoft.svn.core.io.ISVNSession;
+
+/**
+ * FSRepository with reads at fixed revisions served from a {@link SvnkitCache}, for file:// access.
+ * A subclass and not a wrapper, so that SVNKit and code under test see the usual repository class.
+ */
+class CachingFSRepository extends FSRepository {
+
+	private final SvnkitCache cache;
+
+	private final SvnkitCache.Backend backend = new SvnkitCache.Backend() {
+		@Override
+		public String getRepositoryPath(String path) throws SVNException {
+			return CachingFSRepository.this.getRepositoryPath(path);
+		}
+		@Override
+		public long getLatestRevision() throws SVNException {
+			return CachingFSRepository.super.getLatestRevision();
+		}
+		@Override
+		public SVNDirEntry info(String path, long revision) throws SVNException {
+			return CachingFSRepository.super.info(path, revision);
+		}
+		@Override
+		public long getFile(String path, long revision, SVNProperties properties, OutputStream contents) throws SVNException {
+			return CachingFSRepository.super.getFile(path, revision, properties, contents);
+		}
+		@Override
+		public long getDir(String path, long revision, SVNProperties properties, ISVNDirEntryHandler handler) throws SVNException {
+			return CachingFSRepository.super.getDir(path, revision, properties, handler);
+		}
+	};
+
+	CachingFSRepository(SVNURL location, SvnkitCache cache) {
+		super(location, ISVNSession.DEFAULT);
+		this.cache = cache;
+	}
+
+	SvnkitCache getCache() {
+		return cache;
+	}
+
+	@Override
+	public SVNDirEntry info(String path, long revision) throws SVNException {
+		return cache.info(backend, path, revision);
+	}
+
+	@Override
+	public long getFile(String path, long revision, SVNProperties properties, OutputStream contents) throws SVNException {
+		return cache.getFile(backend, path, revision, properties, contents);
+	}
+
+	@Override
+	public long getDir(String path, long revision, SVNProperties properties, ISVNDirEntryHandler handler) throws SVNException {
+		return cache.getDir(backend, path, revision, properties, handler);
+	}
+
+}
@@ -15,23 +15,47 @@
  */
 package se.simonsoft.cms.testing.svn;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.inject.Provider;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNCancelException;
 import org.tmatesoft.svn.core.SVNDirEntry;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.wc.SVNEvent;
 import org.tmatesoft.svn.core.wc.SVNRevision;
 import org.tmatesoft.svn.core.wc.SVNWCUtil;
+import org.tmatesoft.svn.core.wc.admin.ISVNAdminEventHandler;
 import org.tmatesoft.svn.core.wc.admin.SVNAdminClient;
+import org.tmatesoft.svn.core.wc.admin.SVNAdminEvent;
+import org.tmatesoft.svn.core.wc.admin.SVNAdminEventAction;
 import org.tmatesoft.svn.core.wc2.SvnOperationFactory;
 
 public class CmsTestRepository extends CmsRepositoryLocal {
 
 	private static final long serialVersionUID = 1L;
+	
+	private static final int CONNECT_ATTEMPTS = 5;
+	
+	private static final int SVNKIT_POOL_SIZE = 8;
+	
+	private static final long SVNKIT_CACHE_SIZE = 64 * 1024 * 1024;
+	
+	private static final Logger logger = LoggerFactory.getLogger(CmsTestRepository.class);
 
 	private SVNRepository svnkit;
 	private String user;
@@ -39,25 +63,470 @@ public class CmsTestRepository extends CmsRepositoryLocal {
 	
 	private boolean keep = false;
 	private boolean renameAtKeep;
+	
+	private DumpCache dumpCache = null;
+	private transient RepositoryLease lease = null;
+	private transient FsfsBaseline baseline = null;
+	private transient ProvisioningListener listener = null;
+	private volatile boolean verified = false;
+	private transient SvnkitPool svnkitPool = null;
+	private transient SvnkitCache svnkitCache = null;
+	private transient SVNRepository svnkitCached = null;
+	private transient WorkingCopyCache workingCopyCache = null;
+	private transient ProvisioningClient provisioningClient = null;
+	private transient String fixture = null;
+	private transient long fixtureHead = -1;
+	private final transient List<File> workingCopies = new CopyOnWriteArrayList<File>();
 
+	/**
+	 * Gets the repository URL from the server.
+	 */
 	public CmsTestRepository(SVNRepository svnkit, File repoFolder, String user, String password) {
-		super(getUrl(svnkit), repoFolder);
+		this(svnkit, getUrl(svnkit), repoFolder, user, password);
+		this.verified = true;
+	}
+	
+	/**
+	 * @param url the repository root URL, not verified until {@link #verify()}
+	 */
+	CmsTestRepository(SVNRepository svnkit, String url, File repoFolder, String user, String password) {
+		super(url, repoFolder);
 		this.svnkit = svnkit;
 		this.user = user;
 		this.password = password;
 	}
 	
 	/**
+	 * Checks the connection to the repository, with retries while Apache is getting ready to serve it.
+	 * Only the first call makes a request.
+	 * @return the instance
+	 */
+	public CmsTestRepository verify() {
+		if (!verified) {
+			long start = System.nanoTime();
+			String actual = getUrl(svnkit);
+			if (!actual.equals(getUrl())) {
+				logger.warn("Test repository URL {} reported by server as {}", getUrl(), actual);
+			}
+			verified = true;
+			record(ProvisioningPhase.VERIFY, start);
+		}
+		return this;
+	}
+	
+	/**
+	 * If the setup has a dump cache and this repository is empty,
+	 * a previously loaded copy of the same dumpfile is used when available.
 	 * @param dumpfile from svnadmin dump
 	 * @return the instance
 	 */
 	public CmsTestRepository load(InputStream dumpfile) {
+		return load(dumpfile, Long.MAX_VALUE, null);
+	}
+	
+	/**
+	 * @param dumpfile from svnadmin dump
+	 * @param maxRevision stop loading when the repository reaches this revision, {@link Long#MAX_VALUE} for all,
+	 *  limited loads do not use the dump cache
+	 * @param listener notified after each loaded revision, but not for dump cache hits, null for none
+	 * @return the instance
+	 */
+	public CmsTestRepository load(InputStream dumpfile, long maxRevision, LoadListener listener) {
+		long start = System.nanoTime();
+		long before = readHead();
+		String fingerprint;
+		if (dumpCache != null && maxRevision == Long.MAX_VALUE && dumpCache.isEmpty(getAdminPath())) {
+			DumpCache.Spooled spooled;
+			try {
+				spooled = dumpCache.spool(dumpfile);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to read dumpfile", e);
+			}
+			fingerprint = spooled.getFingerprint();
+			if (loadCached(spooled, listener)) {
+				updateFixture(before, fingerprint);
+				record(ProvisioningPhase.LOAD_CACHED, start);
+				return this;
+			}
+		} else {
+			fingerprint = loadDump(dumpfile, maxRevision, listener);
+		}
+		updateFixture(before, fingerprint);
+		record(ProvisioningPhase.LOAD, start);
+		return this;
+	}
+	
+	/**
+	 * @param dumpfile from svnadmin dump, compressed if the name ends with .gz, .xz or .zst
+	 * @return the instance
+	 */
+	public CmsTestRepository load(Path dumpfile) {
+		return load(dumpfile, Long.MAX_VALUE, null);
+	}
+	
+	/**
+	 * Streams the dumpfile from disk, decompressing if the name ends with .gz, .xz or .zst.
+	 * Xz and zstd need the corresponding command on the path.
+	 * @param dumpfile from svnadmin dump
+	 * @param maxRevision stop loading when the repository reaches this revision, {@link Long#MAX_VALUE} for all,
+	 *  limited loads do not use the dump cache
+	 * @param listener notified after each loaded revision, but not for dump cache hits, null for none
+	 * @return the instance
+	 */
+	public CmsTestRepository load(Path dumpfile, long maxRevision, LoadListener listener) {
+		long start = System.nanoTime();
+		long before = readHead();
+		String fingerprint;
+		try {
+			if (dumpCache != null && maxRevision == Long.MAX_VALUE && dumpCache.isEmpty(getAdminPath())) {
+				// The file can be read twice so there is no need to spool it
+				fingerprint = dumpCache.fingerprint(dumpfile);
+				if (dumpCache.restore(fingerprint, getAdminPath())) {
+					updateFixture(before, fingerprint);
+					record(ProvisioningPhase.LOAD_CACHED, start);
+					return this;
+				}
+				loadDump(dumpfile, maxRevision, listener);
+				dumpCache.store(fingerprint, getAdminPath());
+			} else {
+				fingerprint = loadDump(dumpfile, maxRevision, listener);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read dumpfile " + dumpfile, e);
+		}
+		updateFixture(before, fingerprint);
+		record(ProvisioningPhase.LOAD, start);
+		return this;
+	}
+	
+	/**
+	 * Streams the dumpfile without the dump cache, for content that no other test will load, such as archives.
+	 * @param dumpfile from svnadmin dump, compressed if the name ends with .gz, .xz or .zst
+	 * @return the instance
+	 */
+	CmsTestRepository loadUncached(Path dumpfile) {
+		long start = System.nanoTime();
+		long before = readHead();
+		String fingerprint;
+		try {
+			fingerprint = loadDump(dumpfile, Long.MAX_VALUE, null);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read dumpfile " + dumpfile, e);
+		}
+		updateFixture(before, fingerprint);
+		record(ProvisioningPhase.LOAD, start);
+		return this;
+	}
+	
+	/**
+	 * Loads a base fixture, from the dump cache when available, followed by revisions specific to the test.
+	 * Only the overlay revisions are replayed when the base is cached, so loading scales with the size of the overlays.
+	 * @param base from svnadmin dump, see {@link #load(Path)}
+	 * @param overlays from svnadmin dump --incremental, in order, see {@link #loadOverlay(Path)}
+	 * @return the instance
+	 */
+	public CmsTestRepository load(Path base, Path... overlays) {
+		load(base);
+		for (Path overlay : overlays) {
+			loadOverlay(overlay);
+		}
+		return this;
+	}
+	
+	/**
+	 * @param overlay from svnadmin dump --incremental, compressed if the name ends with .gz, .xz or .zst
+	 * @return the instance
+	 * @see #loadOverlay(InputStream)
+	 */
+	public CmsTestRepository loadOverlay(Path overlay) {
+		try {
+			InputStream in = DumpfileStreams.open(overlay);
+			try {
+				loadOverlay(in);
+			} catch (RuntimeException e) {
+				closeAfterFailure(in, e);
+				throw e;
+			}
+			in.close();
+			return this;
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read dumpfile " + overlay, e);
+		}
+	}
+	
+	/**
+	 * Loads revisions on top of the current content, typically an incremental dump that continues a base fixture.
+	 * Copies in the overlay refer to base revisions by number, so the overlay must start at the next revision.
+	 * @param overlay from svnadmin dump --incremental
+	 * @return the instance
+	 * @throws IllegalArgumentException if the first revision in the overlay is not head + 1
+	 */
+	public CmsTestRepository loadOverlay(InputStream overlay) {
+		InputStream in = overlay.markSupported() ? overlay : new BufferedInputStream(overlay, DumpfileStreams.BUFFER_SIZE);
+		long first;
+		try {
+			first = DumpfileStreams.firstRevision(in);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read dumpfile", e);
+		}
+		long head = readHead();
+		if (first != -1 && first != head + 1) {
+			throw new IllegalArgumentException("Overlay dumpfile starts at revision " + first
+					+ " but test repository " + getName() + " is at revision " + head + ", expected " + (head + 1));
+		}
+		return load(in);
+	}
+	
+	/**
+	 * @return true on cache hit
+	 */
+	private boolean loadCached(DumpCache.Spooled spooled, LoadListener listener) {
+		try {
+			if (dumpCache.restore(spooled.getFingerprint(), getAdminPath())) {
+				return true;
+			}
+			loadDump(spooled.getFile().toPath(), Long.MAX_VALUE, listener);
+			dumpCache.store(spooled.getFingerprint(), getAdminPath());
+			return false;
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read spooled dumpfile", e);
+		} finally {
+			spooled.delete();
+		}
+	}
+	
+	private String loadDump(Path dumpfile, long maxRevision, LoadListener listener) throws IOException {
+		InputStream in = DumpfileStreams.open(dumpfile);
+		String fingerprint;
+		try {
+			fingerprint = loadDump(in, maxRevision, listener);
+		} catch (RuntimeException e) {
+			closeAfterFailure(in, e);
+			throw e;
+		}
+		in.close();
+		return fingerprint;
+	}
+	
+	/**
+	 * Closing a decompressor stream may fail too, for example with the exit code of an interrupted process,
+	 * but the load failure is the one to report.
+	 */
+	static void closeAfterFailure(InputStream in, Exception failure) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			failure.addSuppressed(e);
+		}
+	}
+	
+	/**
+	 * @return fingerprint of the loaded content, null if the load was stopped at a revision limit
+	 */
+	private String loadDump(InputStream dumpfile, final long maxRevision, final LoadListener listener) {
+		MessageDigest digest = DumpCache.getDigest();
 		SVNAdminClient svnadmin = new SVNAdminClient(SVNWCUtil.createDefaultAuthenticationManager(), null);
+		final boolean[] stopped = new boolean[1];
+		if (listener != null || maxRevision != Long.MAX_VALUE) {
+			svnadmin.setEventHandler(new ISVNAdminEventHandler() {
+				@Override
+				public void handleAdminEvent(SVNAdminEvent event, double progress) throws SVNException {
+					if (event.getAction() != SVNAdminEventAction.REVISION_LOADED) {
+						return;
+					}
+					if (listener != null) {
+						listener.onRevisionLoaded(event.getRevision(), event.getOriginalRevision());
+					}
+					if (event.getRevision() >= maxRevision) {
+						stopped[0] = true;
+						throw new SVNCancelException();
+					}
+				}
+				@Override
+				public void handleEvent(SVNEvent event, double progress) throws SVNException {
+				}
+				@Override
+				public void checkCancelled() throws SVNCancelException {
+				}
+			});
+		}
 		try {
-			svnadmin.doLoad(getAdminPath(), dumpfile);
+			svnadmin.doLoad(getAdminPath(), new DigestInputStream(dumpfile, digest));
 		} catch (SVNException e) {
+			if (stopped[0]) {
+				return null; // revision limit reached, SVNKit may wrap the cancel exception
+			}
 			throw new RuntimeException("Error not handled", e);
 		}
+		return DumpCache.toHex(digest.digest());
+	}
+	
+	/**
+	 * Tracks the dumpfiles loaded since the repository was empty, for sharing cached working copies.
+	 * @param before youngest revision before the load
+	 * @param fingerprint of the loaded dumpfile, null if unknown
+	 */
+	private void updateFixture(long before, String fingerprint) {
+		if (fingerprint == null || before < 0 || (before > 0 && (fixture == null || before != fixtureHead))) {
+			fixture = null;
+			fixtureHead = -1;
+			return;
+		}
+		if (before == 0) {
+			fixture = fingerprint;
+		} else {
+			MessageDigest digest = DumpCache.getDigest();
+			digest.update((fixture + ":" + fingerprint).getBytes(StandardCharsets.UTF_8));
+			fixture = DumpCache.toHex(digest.digest());
+		}
+		fixtureHead = readHead();
+	}
+	
+	/**
+	 * @return youngest revision from the local repository, -1 if it could not be read
+	 */
+	private long readHead() {
+		try {
+			return FsfsBaseline.readHead(getAdminPath());
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Checks out the repository, or copies a cached checkout if the same dumpfiles have been loaded before
+	 * and the revision was created by them. The working copy is deleted at tearDown.
+	 * @param revision to check out
+	 * @return a new working copy
+	 */
+	public File getWorkingCopy(long revision) {
+		File target;
+		try {
+			target = Files.createTempDirectory("cms-testing-wc-").toFile();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to create working copy folder", e);
+		}
+		// The checkout needs a folder that does not exist
+		target.delete();
+		workingCopies.add(target);
+		String key = getFixtureKey(revision);
+		if (workingCopyCache == null) {
+			new WorkingCopyCache(null).checkout(this, null, revision, target);
+		} else {
+			workingCopyCache.checkout(this, key, revision, target);
+		}
+		return target;
+	}
+	
+	/**
+	 * @return identifies the repository content up to the revision, null if the revision is not from loaded dumpfiles
+	 */
+	String getFixtureKey(long revision) {
+		if (fixture == null || revision < 0 || revision > fixtureHead) {
+			return null;
+		}
+		String uuid;
+		try {
+			// Relocation requires the same repository UUID
+			uuid = Files.readAllLines(new File(getAdminPath(), "db/uuid").toPath(), StandardCharsets.US_ASCII).get(0).trim();
+		} catch (IOException e) {
+			return null;
+		}
+		MessageDigest digest = DumpCache.getDigest();
+		digest.update((fixture + ":" + uuid).getBytes(StandardCharsets.UTF_8));
+		return DumpCache.toHex(digest.digest()) + "-r" + revision;
+	}
+	
+	/**
+	 * @return working copies to delete at tearDown
+	 */
+	List<File> getWorkingCopies() {
+		return workingCopies;
+	}
+	
+	void setWorkingCopyCache(WorkingCopyCache workingCopyCache) {
+		this.workingCopyCache = workingCopyCache;
+	}
+	
+	/**
+	 * Adds all files and folders in a single commit.
+	 * @param tree files and folders to add, none of which may exist except parent folders
+	 * @param message commit message
+	 * @return the new youngest revision
+	 */
+	public long commit(CommitTree tree, String message) {
+		return commit(tree, message, 0);
+	}
+	
+	/**
+	 * Adds files and folders with as few commits as possible, much faster than one operation per item over http.
+	 * @param tree files and folders to add, none of which may exist except parent folders
+	 * @param message commit message
+	 * @param batchSize max files and folders per commit, 0 for a single commit
+	 * @return the new youngest revision
+	 */
+	public long commit(CommitTree tree, String message, int batchSize) {
+		try {
+			return tree.commit(getSvnkit(), message, batchSize);
+		} catch (SVNException e) {
+			throw new RuntimeException("Failed to commit " + tree.size() + " items to test repository " + getName(), e);
+		}
+	}
+	
+	/**
+	 * Captures the current youngest revision as baseline for {@link #resetToBaseline()},
+	 * typically after loading the fixture for a test class.
+	 * There must be no commits in progress.
+	 * @return the instance
+	 */
+	public CmsTestRepository setBaseline() {
+		try {
+			baseline = FsfsBaseline.capture(getAdminPath());
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to capture baseline of test repository " + getName(), e);
+		}
+		return this;
+	}
+	
+	/**
+	 * @return the revision captured by {@link #setBaseline()}
+	 */
+	public long getBaseline() {
+		if (baseline == null) {
+			throw new IllegalStateException("No baseline set for test repository " + getName());
+		}
+		return baseline.getRevision();
+	}
+	
+	/**
+	 * Rewinds the repository to the revision captured by {@link #setBaseline()}, removing later revisions
+	 * and restoring revprops, locks and the rep-cache, so that the repository can be reused by the next test method.
+	 * There must be no commits in progress.
+	 * @return the instance
+	 */
+	public CmsTestRepository resetToBaseline() {
+		getBaseline();
+		try {
+			baseline.reset();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to reset test repository " + getName() + " to revision " + baseline.getRevision(), e);
+		}
+		svnkit.closeSession();
+		if (fixture != null && baseline.getRevision() < fixtureHead) {
+			fixtureHead = baseline.getRevision();
+		}
+		synchronized (this) {
+			// Revisions above the baseline will be committed again with other content
+			if (svnkitCache != null) {
+				svnkitCache.clear();
+			}
+			if (svnkitCached != null) {
+				svnkitCached.closeSession();
+			}
+			if (svnkitPool != null) {
+				svnkitPool.closeSessions();
+			}
+		}
 		return this;
 	}
 	
@@ -65,7 +534,7 @@ public class CmsTestRepository extends CmsRepositoryLocal {
 	 * Flags to test setup that the repository should be kept after tearDown, for manual investigation.
 	 */
 	public void keep() {
-		this.keep = true;
+		setKeep(true);
 	}
 	
 	public boolean isKeep() {
@@ -77,6 +546,17 @@ public class CmsTestRepository extends CmsRepositoryLocal {
 	 */
 	public void setKeep(boolean keep) {
 		this.keep = keep;
+		// Marks the folder for the reaper, in case the JVM dies before tearDown
+		File marker = new File(getAdminPath(), RepositoryReaper.KEEP_MARKER);
+		try {
+			if (keep) {
+				marker.createNewFile();
+			} else {
+				marker.delete();
+			}
+		} catch (IOException e) {
+			logger.warn("Failed to mark test repository {} as kept: {}", getName(), e.getMessage());
+		}
 	}
 	
 	/**
@@ -96,7 +576,8 @@ public class CmsTestRepository extends CmsRepositoryLocal {
 	}
 	
 	/**
-	 * @return for svnkit based impls that get repository provider injected
+	 * @return for svnkit based impls that get repository provider injected,
+	 *  always the same connection so only for services that use it from one thread at a time
 	 */
 	public Provider<SVNRepository> getSvnkitProvider() {
 		final CmsTestRepository repo = this;
@@ -108,6 +589,76 @@ public class CmsTestRepository extends CmsRepositoryLocal {
 		};
 	}
 	
+	/**
+	 * @return for svnkit based impls that get repository provider injected and are called from many threads
+	 */
+	public Provider<SVNRepository> getSvnkitProviderPerThread() {
+		return getSvnkitPool().getPerThread();
+	}
+	
+	/**
+	 * A separate connection that caches reads at fixed revisions, see {@link SvnkitCache}.
+	 * Revision properties are always read from the repository, as they can be changed.
+	 * Disable with {@link SvnkitCache#setEnabled(boolean)} or system property {@value SvnTestSetup#PROPERTY_CACHE}=false.
+	 * @return repository connection, authenticated, for use from one thread at a time
+	 */
+	public synchronized SVNRepository getSvnkitCached() {
+		if (svnkitCached == null) {
+			svnkitCached = SvnTestSetup.createSvnkit(getUrlSvnkit(), user, password, getSvnkitCache());
+		}
+		return svnkitCached;
+	}
+	
+	/**
+	 * @return for svnkit based impls that get repository provider injected, with caching
+	 */
+	public Provider<SVNRepository> getSvnkitProviderCached() {
+		final CmsTestRepository repo = this;
+		return new Provider<SVNRepository>() {
+			@Override
+			public SVNRepository get() {
+				return repo.getSvnkitCached();
+			}
+		};
+	}
+	
+	/**
+	 * @return statistics and off switch for {@link #getSvnkitCached()}
+	 */
+	public synchronized SvnkitCache getSvnkitCache() {
+		if (svnkitCache == null) {
+			svnkitCache = new SvnkitCache(SVNKIT_CACHE_SIZE);
+			svnkitCache.setEnabled(!"false".equals(System.getProperty(SvnTestSetup.PROPERTY_CACHE)));
+		}
+		return svnkitCache;
+	}
+	
+	/**
+	 * Connections are closed at tearDown.
+	 * @return additional connections to this repository, for concurrent use
+	 */
+	public synchronized SvnkitPool getSvnkitPool() {
+		if (svnkitPool == null) {
+			svnkitPool = new SvnkitPool(getUrlSvnkit(), user, password, SVNKIT_POOL_SIZE);
+		}
+		return svnkitPool;
+	}
+	
+	/**
+	 * Closes all connections, called at tearDown.
+	 */
+	synchronized void closeConnections() {
+		if (svnkitPool != null) {
+			svnkitPool.close();
+			svnkitPool = null;
+		}
+		if (svnkitCached != null) {
+			svnkitCached.closeSession();
+			svnkitCached = null;
+		}
+		svnkit.closeSession();
+	}
+	
 	public SVNURL getUrlSvnkit() {
 		try {
 			return SVNURL.parseURIEncoded(getUrl());
@@ -124,12 +675,26 @@ public class CmsTestRepository extends CmsRepositoryLocal {
 		return password;
 	}
 	
+	/**
+	 * Retries with backoff while Apache is getting ready to serve the new repository.
+	 */
 	static String getUrl(SVNRepository repository) {
-		try {
-			SVNDirEntry info = repository.info("/", SVNRevision.HEAD.getNumber());
-			return info.getURL().toString();
-		} catch (SVNException e) {
-			throw new RuntimeException("Failed to verify connection to test repository", e);
+		long backoff = 10L;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				SVNDirEntry info = repository.info("/", SVNRevision.HEAD.getNumber());
+				return info.getURL().toString();
+			} catch (SVNException e) {
+				if (attempt >= CONNECT_ATTEMPTS) {
+					throw new RuntimeException("Failed to verify connection to test repository", e);
+				}
+			}
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Error while waiting for repository", e);
+			}
+			backoff = backoff * 2;
 		}
 	}
 
@@ -140,5 +705,38 @@ public class CmsTestRepository extends CmsRepositoryLocal {
 	boolean isRenameAtKeep() {
 		return renameAtKeep;
 	}
+	
+	RepositoryLease getLease() {
+		return lease;
+	}
+	
+	/**
+	 * @return the daemon that owns the repository, null if created by this JVM
+	 */
+	ProvisioningClient getProvisioningClient() {
+		return provisioningClient;
+	}
+	
+	void setProvisioningClient(ProvisioningClient provisioningClient) {
+		this.provisioningClient = provisioningClient;
+	}
+	
+	void setLease(RepositoryLease lease) {
+		this.lease = lease;
+	}
+	
+	void setListener(ProvisioningListener listener) {
+		this.listener = listener;
+	}
+	
+	private void record(ProvisioningPhase phase, long startNanos) {
+		if (listener != null) {
+			listener.onPhase(phase, getName(), System.nanoTime() - startNanos);
+		}
+	}
+	
+	void setDumpCache(DumpCache dumpCache) {
+		this.dumpCache = dumpCache;
+	}
 
 }
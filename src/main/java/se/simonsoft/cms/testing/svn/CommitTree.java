@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNPropertyValue;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+/**
+ * Files and folders to add to a repository with {@link CmsTestRepository#commit(CommitTree, String, int)},
+ * one commit for the whole tree or per batch instead of one per item.
+ *
+ * Parent folders are added automatically, or reused if they already exist in the repository.
+ * Content is read when committed and sent as a delta stream.
+ */
+public class CommitTree {
+
+	/**
+	 * File content, opened once when the file is committed.
+	 */
+	public interface Content {
+
+		InputStream open() throws IOException;
+
+	}
+
+	private static class Entry {
+
+		private final String path;
+		private final Content content;
+		private final boolean implicit;
+		private final Map<String, String> props = new LinkedHashMap<String, String>();
+
+		Entry(String path, Content content, boolean implicit) {
+			this.path = path;
+			this.content = content;
+			this.implicit = implicit;
+		}
+
+		boolean isDir() {
+			return content == null;
+		}
+
+	}
+
+	/**
+	 * Orders paths depth first, as the commit editor must visit them.
+	 */
+	private static final Comparator<String> DEPTH_FIRST = new Comparator<String>() {
+		@Override
+		public int compare(String o1, String o2) {
+			int n = Math.min(o1.length(), o2.length());
+			for (int i = 0; i < n; i++) {
+				char c1 = o1.charAt(i);
+				char c2 = o2.charAt(i);
+				if (c1 != c2) {
+					if (c1 == '/') {
+						return -1;
+					}
+					if (c2 == '/') {
+						return 1;
+					}
+					return c1 - c2;
+				}
+			}
+			return o1.length() - o2.length();
+		}
+	};
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private Entry last = null;
+
+	/**
+	 * @param path relative to repository root, without leading slash
+	 * @return the tree
+	 */
+	public CommitTree dir(String path) {
+		return add(new Entry(normalize(path), null, false));
+	}
+
+	public CommitTree file(String path, String content) {
+		return file(path, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public CommitTree file(String path, final byte[] content) {
+		return file(path, new Content() {
+			@Override
+			public InputStream open() {
+				return new ByteArrayInputStream(content);
+			}
+		});
+	}
+
+	/**
+	 * @param path relative to repository root, without leading slash
+	 * @param content opened at commit
+	 * @return the tree
+	 */
+	public CommitTree file(String path, Content content) {
+		if (content == null) {
+			throw new IllegalArgumentException("File content is required for " + path);
+		}
+		return add(new Entry(normalize(path), content, false));
+	}
+
+	/**
+	 * Sets a property on the file or folder that was added last.
+	 * @return the tree
+	 */
+	public CommitTree prop(String name, String value) {
+		if (last == null) {
+			throw new IllegalStateException("No file or folder to set property " + name + " on");
+		}
+		last.props.put(name, value);
+		return this;
+	}
+
+	/**
+	 * @return number of files and folders, including implicit parent folders
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	private CommitTree add(Entry entry) {
+		Entry existing = entries.get(entry.path);
+		if (existing != null && !(existing.implicit && entry.isDir())) {
+			throw new IllegalArgumentException("Path " + entry.path + " is already in the tree");
+		}
+		String parent = getParent(entry.path);
+		if (parent.length() > 0 && !entries.containsKey(parent)) {
+			add(new Entry(parent, null, true));
+		}
+		if (existing == null || entry.isDir()) {
+			entries.put(entry.path, entry);
+		}
+		if (!entry.implicit) {
+			last = entry;
+		}
+		return this;
+	}
+
+	/**
+	 * @param batchSize max number of items per commit, 0 for a single commit
+	 * @return the new youngest revision
+	 */
+	long commit(SVNRepository svnkit, String message, int batchSize) throws SVNException {
+		if (batchSize < 0) {
+			throw new IllegalArgumentException("Batch size must not be negative, got " + batchSize);
+		}
+		List<String> paths = new ArrayList<String>(entries.keySet());
+		Collections.sort(paths, DEPTH_FIRST);
+		Set<String> existing = new HashSet<String>();
+		SVNDeltaGenerator deltas = new SVNDeltaGenerator();
+		long revision = -1;
+		int size = batchSize == 0 ? paths.size() : batchSize;
+		for (int from = 0; from < paths.size(); from += size) {
+			List<String> batch = paths.subList(from, Math.min(paths.size(), from + size));
+			revision = commitBatch(svnkit, message, batch, existing, deltas);
+		}
+		return revision;
+	}
+
+	private long commitBatch(SVNRepository svnkit, String message, List<String> batch, Set<String> existing, SVNDeltaGenerator deltas) throws SVNException {
+		ISVNEditor editor = svnkit.getCommitEditor(message, null);
+		LinkedList<String> open = new LinkedList<String>();
+		List<String> added = new ArrayList<String>();
+		try {
+			editor.openRoot(-1);
+			open.push("");
+			for (String path : batch) {
+				Entry entry = entries.get(path);
+				String parent = getParent(path);
+				while (!isAncestorOrSelf(open.peek(), parent)) {
+					editor.closeDir();
+					open.pop();
+				}
+				// At the start of a batch, parents were added by an earlier one
+				for (String dir : getPathsBetween(open.peek(), parent)) {
+					editor.openDir(dir, -1);
+					open.push(dir);
+				}
+				if (entry.isDir()) {
+					if (entry.implicit && exists(svnkit, existing, path)) {
+						editor.openDir(path, -1);
+					} else {
+						editor.addDir(path, null, -1);
+						added.add(path);
+					}
+					open.push(path);
+					for (Map.Entry<String, String> p : entry.props.entrySet()) {
+						editor.changeDirProperty(p.getKey(), SVNPropertyValue.create(p.getValue()));
+					}
+				} else {
+					editor.addFile(path, null, -1);
+					for (Map.Entry<String, String> p : entry.props.entrySet()) {
+						editor.changeFileProperty(path, p.getKey(), SVNPropertyValue.create(p.getValue()));
+					}
+					editor.applyTextDelta(path, null);
+					String checksum = sendContent(path, entry.content, editor, deltas);
+					editor.closeFile(path, checksum);
+				}
+			}
+			while (!open.isEmpty()) {
+				editor.closeDir();
+				open.pop();
+			}
+			long revision = editor.closeEdit().getNewRevision();
+			existing.addAll(added);
+			return revision;
+		} catch (SVNException e) {
+			abort(editor);
+			throw e;
+		} catch (RuntimeException e) {
+			abort(editor);
+			throw e;
+		}
+	}
+
+	private String sendContent(String path, Content content, ISVNEditor editor, SVNDeltaGenerator deltas) throws SVNException {
+		InputStream in;
+		try {
+			in = content.open();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read content for " + path, e);
+		}
+		try {
+			return deltas.sendDelta(path, in, editor, true);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// content was read
+			}
+		}
+	}
+
+	private boolean exists(SVNRepository svnkit, Set<String> existing, String dir) throws SVNException {
+		if (existing.contains(dir)) {
+			return true;
+		}
+		if (svnkit.checkPath(dir, -1) == SVNNodeKind.DIR) {
+			existing.add(dir);
+			return true;
+		}
+		return false;
+	}
+
+	private static void abort(ISVNEditor editor) {
+		try {
+			editor.abortEdit();
+		} catch (SVNException e) {
+			// the original error is more interesting
+		}
+	}
+
+	private static String normalize(String path) {
+		String p = path;
+		while (p.startsWith("/")) {
+			p = p.substring(1);
+		}
+		while (p.endsWith("/")) {
+			p = p.substring(0, p.length() - 1);
+		}
+		if (p.length() == 0) {
+			throw new IllegalArgumentException("Path must not be the repository root");
+		}
+		return p;
+	}
+
+	static String getParent(String path) {
+		int slash = path.lastIndexOf('/');
+		return slash < 0 ? "" : path.substring(0, slash);
+	}
+
+	static boolean isAncestorOrSelf(String dir, String path) {
+		return dir.length() == 0 || dir.equals(path) || path.startsWith(dir + "/");
+	}
+
+	/**
+	 * @return folders below ancestor down to and including path, top first
+	 */
+	static List<String> getPathsBetween(String ancestor, String path) {
+		LinkedList<String> between = new LinkedList<String>();
+		for (String p = path; p.length() > ancestor.length(); p = getParent(p)) {
+			between.addFirst(p);
+		}
+		return between;
+	}
+
+}
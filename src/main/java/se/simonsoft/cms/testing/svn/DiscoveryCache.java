@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the discovered svn parent path and URL between JVMs, so that forked test JVMs skip discovery.
+ */
+class DiscoveryCache {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	static final File DEFAULT_FILE = new File(System.getProperty("java.io.tmpdir"), "cms-testing-svn-parent.properties");
+
+	private static final String KEY_PATH = "path";
+	private static final String KEY_URL = "url";
+
+	private final File file;
+	private final Properties properties = new Properties();
+
+	DiscoveryCache(File file) {
+		this.file = file;
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			logger.debug("Ignoring unreadable discovery cache {}: {}", file, e.getMessage());
+		}
+	}
+
+	/**
+	 * @return previously discovered parent path, to be verified, or null
+	 */
+	File getPath() {
+		String path = properties.getProperty(KEY_PATH);
+		return path == null ? null : new File(path);
+	}
+
+	/**
+	 * @return previously discovered parent URL, to be verified, or null
+	 */
+	String getUrl() {
+		return properties.getProperty(KEY_URL);
+	}
+
+	synchronized void setPath(File path) {
+		properties.setProperty(KEY_PATH, path.getAbsolutePath());
+		save();
+	}
+
+	synchronized void setUrl(String url) {
+		properties.setProperty(KEY_URL, url);
+		save();
+	}
+
+	/**
+	 * Forgets a parent path that failed verification.
+	 */
+	synchronized void invalidatePath() {
+		if (properties.remove(KEY_PATH) != null) {
+			save();
+		}
+	}
+
+	/**
+	 * Forgets a parent URL that failed verification, for example a build agent that moved to another server.
+	 */
+	synchronized void invalidateUrl() {
+		if (properties.remove(KEY_URL) != null) {
+			save();
+		}
+	}
+
+	/**
+	 * Writes to a temp file and renames, so that concurrent JVMs never read a partial file.
+	 */
+	private void save() {
+		try {
+			File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				properties.store(out, "Discovered by " + SvnTestSetup.class.getName());
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.debug("Failed to save discovery cache {}: {}", file, e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,361 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of loaded FSFS <code>db</code> folders, keyed on a fingerprint of the dumpfile content.
+ *
+ * Entries are written to a temporary folder and renamed into place, so concurrent builds never see a partial entry.
+ * Readers take no lock; a restore that fails because the entry was evicted meanwhile falls back to a normal load.
+ */
+class DumpCache {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final String TMP_PREFIX = ".tmp-";
+	private static final String FSFS_CONF = "fsfs.conf";
+	private static final String LOCK_FILE = ".lock";
+	private static final long TMP_STALE_MILLIS = 3600000L;
+
+	private final SvnTestSetup setup;
+	private final File folder;
+	private final long maxBytes;
+	private final long maxAgeMillis;
+
+	/**
+	 * @param setup used for setting permissions on restored repositories
+	 * @param folder the cache folder, shared between JVMs
+	 * @param maxBytes eviction starts with the least recently used entry when the cache grows beyond this size
+	 * @param maxAgeMillis entries not used for this long are evicted
+	 */
+	DumpCache(SvnTestSetup setup, File folder, long maxBytes, long maxAgeMillis) {
+		this.setup = setup;
+		this.folder = folder;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IllegalArgumentException("Failed to create dump cache folder " + folder.getAbsolutePath());
+		}
+	}
+
+	File getFolder() {
+		return folder;
+	}
+
+	/**
+	 * A dumpfile copied to a local temp file, with its content fingerprint.
+	 */
+	static class Spooled {
+
+		private final File file;
+		private final String fingerprint;
+
+		Spooled(File file, String fingerprint) {
+			this.file = file;
+			this.fingerprint = fingerprint;
+		}
+
+		File getFile() {
+			return file;
+		}
+
+		String getFingerprint() {
+			return fingerprint;
+		}
+
+		void delete() {
+			file.delete();
+		}
+
+	}
+
+	/**
+	 * @param dumpfile read to the end but not closed
+	 * @return the spooled dumpfile, call {@link Spooled#delete()} when done
+	 */
+	Spooled spool(InputStream dumpfile) throws IOException {
+		File file = File.createTempFile("cms-testing-", ".svndump");
+		MessageDigest digest = getDigest();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			IOUtils.copyLarge(new DigestInputStream(dumpfile, digest), out, new byte[1024 * 1024]);
+		} catch (IOException e) {
+			out.close();
+			file.delete();
+			throw e;
+		}
+		out.close();
+		return new Spooled(file, toHex(digest.digest()));
+	}
+
+	/**
+	 * @param dumpfile a file that can be read again, compressed or not
+	 * @return fingerprint of the file content, without spooling
+	 */
+	String fingerprint(Path dumpfile) throws IOException {
+		MessageDigest digest = getDigest();
+		InputStream in = Files.newInputStream(dumpfile);
+		try {
+			byte[] buffer = new byte[DumpfileStreams.BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(digest.digest());
+	}
+	
+	/**
+	 * @param adminPath local repository
+	 * @return true if the repository has no revisions yet, i.e. can be replaced with a cached entry
+	 */
+	boolean isEmpty(File adminPath) {
+		try {
+			return FsfsBaseline.readHead(adminPath) == 0;
+		} catch (IOException e) {
+			logger.debug("Could not read youngest revision of {}: {}", adminPath, e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces the db folder of an empty repository with the cached one.
+	 * The repository keeps its own <code>fsfs.conf</code>, as entries are shared between {@link FsfsProfile}s.
+	 * @return false on cache miss or if the cached entry could not be copied
+	 */
+	boolean restore(String fingerprint, File adminPath) {
+		File entry = new File(folder, fingerprint);
+		if (!entry.isDirectory()) {
+			return false;
+		}
+		File db = new File(adminPath, "db");
+		File restored = new File(adminPath, "db" + TMP_PREFIX + UUID.randomUUID());
+		try {
+			cloneDb(new File(entry, "db"), restored);
+			File conf = new File(db, FSFS_CONF);
+			if (conf.exists()) {
+				Files.copy(conf.toPath(), new File(restored, FSFS_CONF).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.deleteIfExists(new File(restored, FSFS_CONF).toPath());
+			}
+			File replaced = new File(adminPath, "db.replaced");
+			Files.move(db.toPath(), replaced.toPath());
+			Files.move(restored.toPath(), db.toPath());
+			FileUtils.deleteDirectory(replaced);
+		} catch (IOException e) {
+			logger.warn("Failed to restore cached dump {}, will load: {}", fingerprint, e.getMessage());
+			FileUtils.deleteQuietly(restored);
+			return false;
+		}
+		setup.chmodNewRepository(adminPath);
+		entry.setLastModified(System.currentTimeMillis());
+		logger.debug("Restored cached dump {} to {}", fingerprint, adminPath);
+		return true;
+	}
+
+	/**
+	 * Adds the db folder of a freshly loaded repository to the cache, then evicts old entries.
+	 */
+	void store(String fingerprint, File adminPath) {
+		File entry = new File(folder, fingerprint);
+		if (entry.exists()) {
+			return;
+		}
+		File tmp = new File(folder, TMP_PREFIX + fingerprint + "-" + UUID.randomUUID());
+		try {
+			FileUtils.copyDirectory(new File(adminPath, "db"), new File(tmp, "db"));
+			Files.move(tmp.toPath(), entry.toPath());
+		} catch (IOException e) {
+			// Most likely another build stored the same dump first
+			logger.debug("Dump cache entry {} not stored: {}", fingerprint, e.getMessage());
+			FileUtils.deleteQuietly(tmp);
+			return;
+		}
+		evict();
+	}
+
+	/**
+	 * Hardlinks the immutable revision files and copies everything else.
+	 */
+	private void cloneDb(final File source, final File target) throws IOException {
+		final Path sourceRoot = source.toPath();
+		final Path targetRoot = target.toPath();
+		Files.walkFileTree(sourceRoot, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(targetRoot.resolve(sourceRoot.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Path relative = sourceRoot.relativize(file);
+				Path dest = targetRoot.resolve(relative);
+				if (isImmutable(relative)) {
+					try {
+						Files.createLink(dest, file);
+						return FileVisitResult.CONTINUE;
+					} catch (UnsupportedOperationException e) {
+						// fall back to copy
+					} catch (IOException e) {
+						// e.g. cache on a different file system
+					}
+				}
+				Files.copy(file, dest, StandardCopyOption.COPY_ATTRIBUTES);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Revision files are never modified in place. Revprop changes write a new file and rename, which replaces the link.
+	 */
+	static boolean isImmutable(Path dbRelative) {
+		if (dbRelative.getNameCount() < 2) {
+			return false;
+		}
+		String area = dbRelative.getName(0).toString();
+		return area.equals("revs") || area.equals("revprops");
+	}
+
+	/**
+	 * Removes entries by age, then the least recently used ones until the cache is within its size limit.
+	 * Skipped if another JVM is evicting.
+	 */
+	synchronized void evict() {
+		RandomAccessFile lockFile = null;
+		FileLock lock = null;
+		try {
+			lockFile = new RandomAccessFile(new File(folder, LOCK_FILE), "rw");
+			lock = lockFile.getChannel().tryLock();
+			if (lock == null) {
+				return;
+			}
+			evictLocked();
+		} catch (OverlappingFileLockException e) {
+			logger.debug("Dump cache eviction already running in this JVM");
+		} catch (IOException e) {
+			logger.warn("Dump cache eviction failed: {}", e.getMessage());
+		} finally {
+			try {
+				if (lock != null) {
+					lock.release();
+				}
+				if (lockFile != null) {
+					lockFile.close();
+				}
+			} catch (IOException e) {
+				logger.debug("Failed to release dump cache lock: {}", e.getMessage());
+			}
+		}
+	}
+
+	private void evictLocked() throws IOException {
+		long now = System.currentTimeMillis();
+		File[] children = folder.listFiles();
+		if (children == null) {
+			return;
+		}
+		List<File> entries = new ArrayList<File>();
+		for (File f : children) {
+			if (f.getName().startsWith(TMP_PREFIX)) {
+				if (now - f.lastModified() > TMP_STALE_MILLIS) {
+					FileUtils.deleteQuietly(f);
+				}
+			} else if (f.isDirectory() && !f.getName().startsWith(".")) {
+				if (now - f.lastModified() > maxAgeMillis) {
+					remove(f);
+				} else {
+					entries.add(f);
+				}
+			}
+		}
+		Collections.sort(entries, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		long total = 0;
+		List<Long> sizes = new ArrayList<Long>();
+		for (File e : entries) {
+			long size = FileUtils.sizeOfDirectory(e);
+			sizes.add(size);
+			total += size;
+		}
+		for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+			remove(entries.get(i));
+			total -= sizes.get(i);
+		}
+	}
+
+	private void remove(File entry) throws IOException {
+		// Rename first so that concurrent restores fail cleanly instead of copying a half deleted entry
+		File evicted = new File(folder, TMP_PREFIX + "evicted-" + UUID.randomUUID());
+		if (!entry.renameTo(evicted)) {
+			logger.debug("Failed to evict dump cache entry {}", entry);
+			return;
+		}
+		logger.debug("Evicting dump cache entry {}", entry.getName());
+		FileUtils.deleteDirectory(evicted);
+	}
+
+	static MessageDigest getDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+}
@@ -0,0 +1,438 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Writes svnadmin dumpfiles incrementally, for synthetic fixtures of any size.
+ *
+ * Records are written as soon as the next one starts, so memory use does not depend on the size of the dump.
+ * Use {@link #stream(Generator)} to feed {@link CmsTestRepository#load(InputStream)} directly.
+ * Output is deterministic, including <code>svn:date</code>, so generated fixtures can be served from the dump cache.
+ *
+ * <pre>
+ * repo.load(DumpfileBuilder.stream(new DumpfileBuilder.Generator() {
+ *     public void generate(DumpfileBuilder dump) throws IOException {
+ *         dump.revision("Initial").addDir("a").addFile("a/b.xml", "&lt;doc/&gt;").prop("cms:status", "Released");
+ *     }
+ * }));
+ * </pre>
+ */
+public class DumpfileBuilder implements Closeable {
+
+	/**
+	 * Revision dates are this plus one second per revision.
+	 */
+	private static final long DATE_BASE = 1348600052000L;
+
+	private static final int PIPE_SIZE = 1024 * 1024;
+
+	private final OutputStream out;
+	private String uuid = null;
+	private boolean started = false;
+	private long firstRevision = 1;
+	private long revision = -1;
+	private Map<String, String> revisionProps = null;
+	private Node node = null;
+
+	/**
+	 * Callback that writes the contents of a streamed dumpfile, see {@link DumpfileBuilder#stream(Generator)}.
+	 */
+	public interface Generator {
+
+		/**
+		 * @param dump to add revisions to, closed afterwards
+		 */
+		void generate(DumpfileBuilder dump) throws IOException;
+
+	}
+
+	private static class Node {
+
+		private final String path;
+		private final String kind;
+		private final String action;
+		private String copyFromPath = null;
+		private long copyFromRevision = -1;
+		private Map<String, String> props = null;
+		private byte[] text = null;
+
+		Node(String path, String kind, String action) {
+			this.path = path;
+			this.kind = kind;
+			this.action = action;
+		}
+
+	}
+
+	/**
+	 * @param out receives the dumpfile, closed by {@link #close()}
+	 */
+	public DumpfileBuilder(OutputStream out) {
+		this.out = new BufferedOutputStream(out, 64 * 1024);
+	}
+
+	/**
+	 * Runs the generator in a separate thread.
+	 * Errors in the generator are thrown from the returned stream when the dumpfile ends.
+	 * @param generator adds revisions
+	 * @return dumpfile stream
+	 */
+	public static InputStream stream(final Generator generator) {
+		final PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+		final PipedOutputStream pipe;
+		try {
+			pipe = new PipedOutputStream(in);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to create dumpfile pipe", e);
+		}
+		final IOException[] error = new IOException[1];
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				DumpfileBuilder dump = new DumpfileBuilder(pipe);
+				try {
+					generator.generate(dump);
+					dump.close();
+				} catch (IOException e) {
+					fail(e);
+				} catch (RuntimeException e) {
+					fail(new IOException("Dumpfile generation failed", e));
+				} finally {
+					try {
+						pipe.close();
+					} catch (IOException e) {
+						// reader has gone away
+					}
+				}
+			}
+			private void fail(IOException e) {
+				synchronized (error) {
+					error[0] = e;
+				}
+			}
+		}, "cms-testing-dumpfile");
+		writer.setDaemon(true);
+		writer.start();
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				return check(super.read());
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return check(super.read(b, off, len));
+			}
+			private int check(int result) throws IOException {
+				if (result == -1) {
+					synchronized (error) {
+						if (error[0] != null) {
+							throw error[0];
+						}
+					}
+				}
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * @param uuid repository UUID, before the first revision
+	 * @return the builder
+	 */
+	public DumpfileBuilder uuid(String uuid) {
+		if (started) {
+			throw new IllegalStateException("UUID must be set before the first revision");
+		}
+		this.uuid = uuid;
+		return this;
+	}
+
+	/**
+	 * Makes an incremental dumpfile that continues an existing history, like svnadmin dump --incremental.
+	 * There is no revision 0 record, and copies may refer to revisions before the first.
+	 * @param firstRevision number of the first revision, before the first revision
+	 * @return the builder
+	 */
+	public DumpfileBuilder incremental(long firstRevision) {
+		if (started) {
+			throw new IllegalStateException("Incremental start must be set before the first revision");
+		}
+		if (firstRevision < 1) {
+			throw new IllegalArgumentException("First revision must be at least 1, got " + firstRevision);
+		}
+		this.firstRevision = firstRevision;
+		return this;
+	}
+
+	/**
+	 * Starts the next revision, 1 or the {@link #incremental(long)} start for the first call.
+	 * @return the builder
+	 */
+	public DumpfileBuilder revision() throws IOException {
+		start();
+		flushNode();
+		flushRevision();
+		revision++;
+		revisionProps = new LinkedHashMap<String, String>();
+		revisionProps.put("svn:date", getDate(revision));
+		return this;
+	}
+
+	/**
+	 * @param log commit message
+	 * @return the builder
+	 */
+	public DumpfileBuilder revision(String log) throws IOException {
+		return revision().revprop("svn:log", log);
+	}
+
+	/**
+	 * @return the current revision, the one before the first revision when called before {@link #revision()}
+	 */
+	public long getRevision() {
+		return started ? revision : firstRevision - 1;
+	}
+
+	/**
+	 * Sets a property on the current revision, before any node is added to it.
+	 * @return the builder
+	 */
+	public DumpfileBuilder revprop(String name, String value) {
+		if (revisionProps == null) {
+			throw new IllegalStateException("Revision properties must be set before the first node of the revision");
+		}
+		revisionProps.put(name, value);
+		return this;
+	}
+
+	public DumpfileBuilder addDir(String path) throws IOException {
+		return node(new Node(path, "dir", "add"));
+	}
+
+	public DumpfileBuilder addFile(String path, String content) throws IOException {
+		return addFile(path, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param content not copied, must not be modified until the next node is added
+	 * @return the builder
+	 */
+	public DumpfileBuilder addFile(String path, byte[] content) throws IOException {
+		Node n = new Node(path, "file", "add");
+		n.text = content;
+		return node(n);
+	}
+
+	public DumpfileBuilder changeFile(String path, String content) throws IOException {
+		return changeFile(path, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Replaces the file content, keeping properties unless {@link #prop(String, String)} is called.
+	 * @return the builder
+	 */
+	public DumpfileBuilder changeFile(String path, byte[] content) throws IOException {
+		Node n = new Node(path, "file", "change");
+		n.text = content;
+		return node(n);
+	}
+
+	/**
+	 * Replaces properties, starting from none, with those set by subsequent calls to {@link #prop(String, String)}.
+	 * @return the builder
+	 */
+	public DumpfileBuilder changeProps(String path, boolean isDir) throws IOException {
+		Node n = new Node(path, isDir ? "dir" : "file", "change");
+		n.props = new LinkedHashMap<String, String>();
+		return node(n);
+	}
+
+	public DumpfileBuilder copyDir(String path, String fromPath, long fromRevision) throws IOException {
+		return copy(new Node(path, "dir", "add"), fromPath, fromRevision);
+	}
+
+	public DumpfileBuilder copyFile(String path, String fromPath, long fromRevision) throws IOException {
+		return copy(new Node(path, "file", "add"), fromPath, fromRevision);
+	}
+
+	private DumpfileBuilder copy(Node n, String fromPath, long fromRevision) throws IOException {
+		// The current revision is still being written, so it can not be a copy source
+		if (fromRevision < 0 || fromRevision >= getRevision()) {
+			throw new IllegalArgumentException("Copy source revision " + fromRevision + " must be before revision " + getRevision());
+		}
+		n.copyFromPath = fromPath;
+		n.copyFromRevision = fromRevision;
+		return node(n);
+	}
+
+	public DumpfileBuilder delete(String path) throws IOException {
+		return node(new Node(path, null, "delete"));
+	}
+
+	/**
+	 * Sets a property on the node that was just added or changed.
+	 * For a copy the properties replace those of the copy source.
+	 * @return the builder
+	 */
+	public DumpfileBuilder prop(String name, String value) {
+		if (node == null || node.kind == null) {
+			throw new IllegalStateException("No node to set property " + name + " on");
+		}
+		if (node.props == null) {
+			node.props = new LinkedHashMap<String, String>();
+		}
+		node.props.put(name, value);
+		return this;
+	}
+
+	/**
+	 * Writes pending records and closes the output.
+	 */
+	@Override
+	public void close() throws IOException {
+		start();
+		flushNode();
+		flushRevision();
+		out.close();
+	}
+
+	private DumpfileBuilder node(Node n) throws IOException {
+		if (revision < firstRevision) {
+			throw new IllegalStateException("Call revision() before adding nodes");
+		}
+		flushNode();
+		flushRevision();
+		if ("add".equals(n.action) && n.copyFromPath == null) {
+			// like svnadmin, an empty property section for new nodes
+			n.props = new LinkedHashMap<String, String>();
+		}
+		node = n;
+		return this;
+	}
+
+	private void start() throws IOException {
+		if (started) {
+			return;
+		}
+		started = true;
+		write("SVN-fs-dump-format-version: 2\n\n");
+		if (uuid != null) {
+			write("UUID: " + uuid + "\n\n");
+		}
+		revision = firstRevision - 1;
+		if (firstRevision == 1) {
+			revisionProps = new LinkedHashMap<String, String>();
+			revisionProps.put("svn:date", getDate(0));
+		}
+	}
+
+	private void flushRevision() throws IOException {
+		if (revisionProps == null) {
+			return;
+		}
+		byte[] props = toProps(revisionProps);
+		write("Revision-number: " + revision + "\n"
+				+ "Prop-content-length: " + props.length + "\n"
+				+ "Content-length: " + props.length + "\n\n");
+		out.write(props);
+		write("\n");
+		revisionProps = null;
+	}
+
+	private void flushNode() throws IOException {
+		if (node == null) {
+			return;
+		}
+		Node n = node;
+		node = null;
+		StringBuilder headers = new StringBuilder();
+		headers.append("Node-path: ").append(n.path).append('\n');
+		if (n.kind != null) {
+			headers.append("Node-kind: ").append(n.kind).append('\n');
+		}
+		headers.append("Node-action: ").append(n.action).append('\n');
+		if (n.copyFromPath != null) {
+			headers.append("Node-copyfrom-rev: ").append(n.copyFromRevision).append('\n');
+			headers.append("Node-copyfrom-path: ").append(n.copyFromPath).append('\n');
+		}
+		byte[] props = n.props == null ? null : toProps(n.props);
+		long length = 0;
+		if (props != null) {
+			headers.append("Prop-content-length: ").append(props.length).append('\n');
+			length += props.length;
+		}
+		if (n.text != null) {
+			headers.append("Text-content-length: ").append(n.text.length).append('\n');
+			length += n.text.length;
+		}
+		if (props != null || n.text != null) {
+			headers.append("Content-length: ").append(length).append('\n');
+		}
+		headers.append('\n');
+		write(headers.toString());
+		if (props != null) {
+			out.write(props);
+		}
+		if (n.text != null) {
+			out.write(n.text);
+		}
+		write("\n\n");
+	}
+
+	private void write(String s) throws IOException {
+		out.write(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] toProps(Map<String, String> props) {
+		StringBuilder b = new StringBuilder();
+		for (Map.Entry<String, String> p : props.entrySet()) {
+			appendProp(b, "K", p.getKey());
+			appendProp(b, "V", p.getValue());
+		}
+		b.append("PROPS-END\n");
+		return b.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Lengths are in bytes.
+	 */
+	private static void appendProp(StringBuilder b, String type, String value) {
+		b.append(type).append(' ').append(value.getBytes(StandardCharsets.UTF_8).length).append('\n');
+		b.append(value).append('\n');
+	}
+
+	private static String getDate(long revision) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'000Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(DATE_BASE + revision * 1000L));
+	}
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens dumpfiles for streaming, decompressing by file name suffix.
+ *
+ * Gzip is read in-process. For xz and zstd the <code>xz</code> or <code>zstd</code> command must be on the path,
+ * which avoids adding decompression libraries to the dependencies of every test.
+ */
+class DumpfileStreams {
+
+	static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int PEEK_LIMIT = 64 * 1024;
+	private static final String REVISION_NUMBER = "Revision-number:";
+
+	/**
+	 * @param dumpfile uncompressed, or with suffix .gz, .xz or .zst
+	 * @return stream to close after reading
+	 */
+	static InputStream open(Path dumpfile) throws IOException {
+		String name = dumpfile.getFileName().toString();
+		if (name.endsWith(".gz")) {
+			return new BufferedInputStream(new GZIPInputStream(Files.newInputStream(dumpfile), BUFFER_SIZE), BUFFER_SIZE);
+		}
+		if (name.endsWith(".xz")) {
+			return decompress(dumpfile, "xz");
+		}
+		if (name.endsWith(".zst")) {
+			return decompress(dumpfile, "zstd");
+		}
+		return new BufferedInputStream(Files.newInputStream(dumpfile), BUFFER_SIZE);
+	}
+
+	/**
+	 * Reads the number of the first revision record and resets the stream.
+	 * The first record follows the format and UUID headers, so only the start of the stream is read.
+	 * @param dumpfile stream that supports mark
+	 * @return the first revision number, -1 if there is none near the start of the stream
+	 */
+	static long firstRevision(InputStream dumpfile) throws IOException {
+		if (!dumpfile.markSupported()) {
+			throw new IllegalArgumentException("Dumpfile stream must support mark");
+		}
+		dumpfile.mark(PEEK_LIMIT);
+		try {
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < PEEK_LIMIT; i++) {
+				int c = dumpfile.read();
+				if (c == -1) {
+					break;
+				}
+				if (c != '\n') {
+					line.append((char) c);
+					continue;
+				}
+				if (line.indexOf(REVISION_NUMBER) == 0) {
+					return Long.parseLong(line.substring(REVISION_NUMBER.length()).trim());
+				}
+				line.setLength(0);
+			}
+			return -1;
+		} finally {
+			dumpfile.reset();
+		}
+	}
+
+	private static InputStream decompress(final Path dumpfile, final String command) throws IOException {
+		ProcessBuilder pb = new ProcessBuilder(command, "-d", "-c", dumpfile.toAbsolutePath().toString());
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		final Process process;
+		try {
+			process = pb.start();
+		} catch (IOException e) {
+			throw new IOException("Command " + command + " is needed to read " + dumpfile, e);
+		}
+		return new FilterInputStream(new BufferedInputStream(process.getInputStream(), BUFFER_SIZE)) {
+			private boolean eof = false;
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				eof = eof || b == -1;
+				return b;
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				eof = eof || n == -1;
+				return n;
+			}
+			@Override
+			public void close() throws IOException {
+				super.close();
+				if (!eof) {
+					// Stopped early, for example at a revision limit
+					process.destroy();
+					return;
+				}
+				try {
+					int exit = process.waitFor();
+					if (exit != 0) {
+						throw new IOException(command + " exited with " + exit + " reading " + dumpfile);
+					}
+				} catch (InterruptedException e) {
+					process.destroy();
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted reading " + dumpfile, e);
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Snapshot of the mutable files in an FSFS repository, for rewinding it to a baseline revision.
+ *
+ * Revision files are immutable so only those above the baseline need to be removed.
+ * Revprop files are hardlinked into the snapshot, because a revprop change replaces the file.
+ */
+class FsfsBaseline {
+
+	static final String FOLDER = "cms-testing-baseline";
+
+	/**
+	 * Files in db that are restored from the snapshot, or deleted if they did not exist at the snapshot.
+	 */
+	private static final String[] RESTORE = { "current", "txn-current", "rep-cache.db", "min-unpacked-rev" };
+
+	/**
+	 * Folders in db with contents that are only valid for the revisions they were created for.
+	 */
+	private static final String[] CLEAR = { "transactions", "txn-protorevs", "node-origins" };
+
+	private final File adminPath;
+	private final long revision;
+
+	private FsfsBaseline(File adminPath, long revision) {
+		this.adminPath = adminPath;
+		this.revision = revision;
+	}
+
+	/**
+	 * @param adminPath local repository, with no commits in progress
+	 * @return baseline at the current youngest revision
+	 */
+	static FsfsBaseline capture(File adminPath) throws IOException {
+		long head = readHead(adminPath);
+		File db = new File(adminPath, "db");
+		File snapshot = new File(adminPath, FOLDER);
+		FileUtils.deleteDirectory(snapshot);
+		File snapshotDb = new File(snapshot, "db");
+		snapshotDb.mkdirs();
+		for (String f : RESTORE) {
+			File file = new File(db, f);
+			if (file.exists()) {
+				Files.copy(file.toPath(), new File(snapshotDb, f).toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+			}
+		}
+		File locks = new File(db, "locks");
+		if (locks.isDirectory()) {
+			FileUtils.copyDirectory(locks, new File(snapshotDb, "locks"));
+		}
+		linkTree(new File(db, "revprops"), new File(snapshotDb, "revprops"));
+		return new FsfsBaseline(adminPath, head);
+	}
+
+	long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Rewinds the repository to the baseline revision. There must be no commits in progress.
+	 */
+	void reset() throws IOException {
+		File db = new File(adminPath, "db");
+		File snapshotDb = new File(new File(adminPath, FOLDER), "db");
+		long head = readHead(adminPath);
+		if (head < revision) {
+			throw new IllegalStateException("Repository " + adminPath + " at revision " + head + " is older than baseline " + revision);
+		}
+		String minUnpacked = readFirstToken(new File(db, "min-unpacked-rev"));
+		if (minUnpacked != null && Long.parseLong(minUnpacked) > revision + 1) {
+			throw new IllegalStateException("Repository " + adminPath + " has packed revisions above baseline " + revision);
+		}
+		removeAbove(new File(db, "revs"));
+		removeAbove(new File(db, "revprops"));
+		restoreRevprops(new File(snapshotDb, "revprops"), new File(db, "revprops"));
+		for (String f : CLEAR) {
+			File dir = new File(db, f);
+			if (dir.isDirectory()) {
+				FileUtils.cleanDirectory(dir);
+			}
+		}
+		File locks = new File(db, "locks");
+		if (locks.isDirectory()) {
+			FileUtils.deleteDirectory(locks);
+			File snapshotLocks = new File(snapshotDb, "locks");
+			if (snapshotLocks.isDirectory()) {
+				FileUtils.copyDirectory(snapshotLocks, locks);
+			}
+		}
+		for (String f : RESTORE) {
+			File file = new File(snapshotDb, f);
+			if (file.exists()) {
+				Files.copy(file.toPath(), new File(db, f).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+			} else {
+				// For example a rep-cache.db created after the snapshot, with rows for the removed revisions
+				Files.deleteIfExists(new File(db, f).toPath());
+			}
+		}
+		invalidateServerCaches(db);
+	}
+
+	/**
+	 * Apache caches FSFS data keyed on the instance ID and revprop generation, neither of which would change on a rewind.
+	 */
+	private void invalidateServerCaches(File db) throws IOException {
+		File uuid = new File(db, "uuid");
+		List<String> lines = Files.readAllLines(uuid.toPath(), StandardCharsets.US_ASCII);
+		if (lines.size() > 1) {
+			lines.set(1, UUID.randomUUID().toString());
+			writeReplace(uuid, join(lines));
+		}
+		File generation = new File(db, "revprop-generation");
+		String current = readFirstToken(generation);
+		if (current != null) {
+			// Even numbers mean no revprop write in progress
+			long next = Long.parseLong(current) + 2;
+			writeReplace(generation, (next - next % 2) + "\n");
+		}
+	}
+
+	/**
+	 * Deletes numbered revision files above the baseline, in linear or sharded layout, and shards that become empty.
+	 */
+	private void removeAbove(File dir) throws IOException {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File c : children) {
+			if (c.isDirectory()) {
+				if (!isNumber(c.getName())) {
+					continue; // packed shards
+				}
+				removeAbove(c);
+				String[] left = c.list();
+				if (left != null && left.length == 0) {
+					Files.delete(c.toPath());
+				}
+			} else if (isNumber(c.getName()) && Long.parseLong(c.getName()) > revision) {
+				Files.delete(c.toPath());
+			}
+		}
+	}
+
+	/**
+	 * Puts back revprop files that have been replaced since the snapshot.
+	 */
+	private void restoreRevprops(File snapshot, File live) throws IOException {
+		File[] children = snapshot.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File c : children) {
+			File target = new File(live, c.getName());
+			if (c.isDirectory()) {
+				target.mkdir();
+				restoreRevprops(c, target);
+			} else if (!target.exists() || !Files.isSameFile(c.toPath(), target.toPath())) {
+				Files.copy(c.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+			}
+		}
+	}
+
+	private static void linkTree(File source, File target) throws IOException {
+		File[] children = source.listFiles();
+		if (children == null) {
+			return;
+		}
+		target.mkdirs();
+		for (File c : children) {
+			Path dest = new File(target, c.getName()).toPath();
+			if (c.isDirectory()) {
+				linkTree(c, dest.toFile());
+			} else {
+				try {
+					Files.createLink(dest, c.toPath());
+				} catch (IOException e) {
+					Files.copy(c.toPath(), dest, StandardCopyOption.COPY_ATTRIBUTES);
+				} catch (UnsupportedOperationException e) {
+					Files.copy(c.toPath(), dest, StandardCopyOption.COPY_ATTRIBUTES);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param adminPath local repository
+	 * @return the youngest revision according to db/current
+	 */
+	static long readHead(File adminPath) throws IOException {
+		String head = readFirstToken(new File(adminPath, "db/current"));
+		if (head == null) {
+			throw new IOException("Not an FSFS repository: " + adminPath);
+		}
+		return Long.parseLong(head);
+	}
+
+	private static String readFirstToken(File file) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+		return content.split("\\s+")[0];
+	}
+
+	private static boolean isNumber(String name) {
+		if (name.length() == 0) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (!Character.isDigit(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * FSFS replaces files by rename, and so do we, so that hardlinked copies are never modified.
+	 */
+	private static void writeReplace(File file, String content) throws IOException {
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		Files.write(tmp.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String join(List<String> lines) {
+		StringBuilder b = new StringBuilder();
+		for (String l : lines) {
+			b.append(l).append('\n');
+		}
+		return b.toString();
+	}
+
+}
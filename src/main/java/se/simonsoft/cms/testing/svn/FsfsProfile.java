@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * FSFS settings for new test repositories, written to <code>db/fsfs.conf</code> and read by both SVNKit and Apache.
+ */
+public enum FsfsProfile {
+
+	/**
+	 * The settings from repository creation, same as svnadmin create.
+	 */
+	DEFAULT(null),
+
+	/**
+	 * For repositories that only live for the duration of a test.
+	 * Skips the rep-sharing database and stores directories and properties as fulltexts,
+	 * trading repository size for less work per commit and load.
+	 */
+	THROWAWAY("### Written by cms-testing for throwaway test repositories\n"
+			+ "[rep-sharing]\n"
+			+ "enable-rep-sharing = false\n"
+			+ "[deltification]\n"
+			+ "enable-dir-deltification = false\n"
+			+ "enable-props-deltification = false\n"
+			+ "max-deltification-walk = 16\n"
+			+ "max-linear-deltification = 4\n");
+
+	private final String conf;
+
+	private FsfsProfile(String conf) {
+		this.conf = conf;
+	}
+
+	/**
+	 * @param dir a repository folder that has no revisions yet
+	 */
+	void apply(File dir) {
+		if (conf == null) {
+			return;
+		}
+		try {
+			Files.write(new File(dir, "db/fsfs.conf").toPath(), conf.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to configure test repository " + dir.getAbsolutePath(), e);
+		}
+	}
+
+}
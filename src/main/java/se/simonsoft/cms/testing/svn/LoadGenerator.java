@@ -0,0 +1,302 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.ISVNLogEntryHandler;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+/**
+ * Runs a mix of CMS-like svn operations against a test repository from many threads,
+ * for capacity testing of the svn server setup.
+ *
+ * Each thread has its own connection, from {@link CmsTestRepository#getSvnkitProviderPerThread()}.
+ * The repository is seeded with files to read before the measurement starts.
+ *
+ * <pre>
+ * LoadReport report = new LoadGenerator(repo).setThreads(16).setDuration(30000)
+ *         .setWeight(LoadOperation.COMMIT, 1).setWeight(LoadOperation.READ, 20).run();
+ * report.write(new File("target/load-report.json"));
+ * </pre>
+ */
+public class LoadGenerator {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final String SEED_FOLDER = "load/seed";
+	private static final String COMMIT_FOLDER = "load/commit";
+
+	private final CmsTestRepository repo;
+	private int threads = 4;
+	private long durationMillis = 10000L;
+	private long warmupMillis = 0L;
+	private int seedFiles = 100;
+	private int fileSize = 4096;
+	private final Map<LoadOperation, Integer> weights = new EnumMap<LoadOperation, Integer>(LoadOperation.class);
+
+	/**
+	 * @param repo a throwaway repository, will get commits
+	 */
+	public LoadGenerator(CmsTestRepository repo) {
+		this.repo = repo;
+		weights.put(LoadOperation.COMMIT, 1);
+		weights.put(LoadOperation.READ, 10);
+		weights.put(LoadOperation.LOG, 2);
+		weights.put(LoadOperation.PROPGET, 5);
+	}
+
+	public LoadGenerator setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1, got " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * @param durationMillis measured time
+	 */
+	public LoadGenerator setDuration(long durationMillis) {
+		this.durationMillis = durationMillis;
+		return this;
+	}
+
+	/**
+	 * @param warmupMillis time to run the workload before measuring
+	 */
+	public LoadGenerator setWarmup(long warmupMillis) {
+		this.warmupMillis = warmupMillis;
+		return this;
+	}
+
+	/**
+	 * @param seedFiles number of files to read from, committed before the run
+	 * @param fileSize bytes per seed file and per committed file
+	 */
+	public LoadGenerator setSeed(int seedFiles, int fileSize) {
+		if (seedFiles < 1) {
+			throw new IllegalArgumentException("At least one seed file is needed, got " + seedFiles);
+		}
+		this.seedFiles = seedFiles;
+		this.fileSize = fileSize;
+		return this;
+	}
+
+	/**
+	 * @param weight relative frequency of the operation, 0 to exclude it
+	 */
+	public LoadGenerator setWeight(LoadOperation operation, int weight) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("Weight must not be negative, got " + weight);
+		}
+		weights.put(operation, weight);
+		return this;
+	}
+
+	/**
+	 * Seeds the repository, runs warmup and measurement, then returns when all threads are done.
+	 * @return latencies and throughput per operation
+	 */
+	public LoadReport run() {
+		final LoadOperation[] mix = getMix();
+		seed();
+		final Map<LoadOperation, TimingStats> timings = new EnumMap<LoadOperation, TimingStats>(LoadOperation.class);
+		final Map<LoadOperation, AtomicLong> errorCounts = new EnumMap<LoadOperation, AtomicLong>(LoadOperation.class);
+		for (LoadOperation op : LoadOperation.values()) {
+			timings.put(op, new TimingStats());
+			errorCounts.put(op, new AtomicLong());
+		}
+		final Provider<SVNRepository> connections = repo.getSvnkitProviderPerThread();
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] window = new long[2];
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			final int worker = i;
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					SVNRepository svnkit = connections.get();
+					SVNDeltaGenerator deltas = new SVNDeltaGenerator();
+					byte[] content = new byte[fileSize];
+					int committed = 0;
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					while (true) {
+						long now = System.nanoTime();
+						if (now >= window[1]) {
+							break;
+						}
+						LoadOperation op = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+						long begin = System.nanoTime();
+						try {
+							if (op == LoadOperation.COMMIT) {
+								commitFile(svnkit, deltas, worker, "f" + (committed++) + ".xml", content);
+							} else {
+								execute(svnkit, op);
+							}
+							if (begin >= window[0]) {
+								timings.get(op).add(System.nanoTime() - begin);
+							}
+						} catch (SVNException e) {
+							if (begin >= window[0]) {
+								errorCounts.get(op).incrementAndGet();
+							}
+							logger.debug("Load operation {} failed: {}", op, e.getMessage());
+						} catch (RuntimeException e) {
+							if (begin >= window[0]) {
+								errorCounts.get(op).incrementAndGet();
+							}
+							logger.debug("Load operation {} failed: {}", op, e.getMessage());
+						}
+					}
+				}
+			}, "cms-testing-load-" + i);
+			t.setDaemon(true);
+			workers.add(t);
+			t.start();
+		}
+		long begin = System.nanoTime();
+		window[0] = begin + warmupMillis * 1000000L;
+		window[1] = window[0] + durationMillis * 1000000L;
+		start.countDown();
+		for (Thread t : workers) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted waiting for load threads", e);
+			}
+		}
+		long elapsed = Math.min(System.nanoTime(), window[1]) - window[0];
+		Map<LoadOperation, Long> errors = new EnumMap<LoadOperation, Long>(LoadOperation.class);
+		for (LoadOperation op : LoadOperation.values()) {
+			errors.put(op, errorCounts.get(op).get());
+		}
+		LoadReport report = new LoadReport(threads, Math.max(elapsed, 0), timings, errors);
+		logger.info("{}", report);
+		return report;
+	}
+
+	private void execute(SVNRepository svnkit, LoadOperation op) throws SVNException {
+		String seedFile = SEED_FOLDER + "/f" + ThreadLocalRandom.current().nextInt(seedFiles) + ".xml";
+		switch (op) {
+		case READ:
+			svnkit.getFile(seedFile, -1, null, new ByteArrayOutputStream(fileSize));
+			break;
+		case PROPGET:
+			svnkit.getFile(seedFile, -1, new SVNProperties(), null);
+			break;
+		case LOG:
+			svnkit.log(new String[] { "" }, -1, 0, false, false, 10, new ISVNLogEntryHandler() {
+				@Override
+				public void handleLogEntry(SVNLogEntry logEntry) {
+				}
+			});
+			break;
+		default:
+			throw new IllegalArgumentException("Unexpected operation " + op);
+		}
+	}
+
+	/**
+	 * Adds a file to the worker's folder, created by {@link #seed()},
+	 * opening known folders instead of checking what exists so that only the commit is timed.
+	 */
+	private void commitFile(SVNRepository svnkit, SVNDeltaGenerator deltas, int worker, String name, byte[] content) throws SVNException {
+		String dir = COMMIT_FOLDER + "/t" + worker;
+		String path = dir + "/" + name;
+		ISVNEditor editor = svnkit.getCommitEditor("load " + path, null);
+		try {
+			editor.openRoot(-1);
+			List<String> open = CommitTree.getPathsBetween("", dir);
+			for (String d : open) {
+				editor.openDir(d, -1);
+			}
+			editor.addFile(path, null, -1);
+			editor.applyTextDelta(path, null);
+			String checksum = deltas.sendDelta(path, new ByteArrayInputStream(content), editor, true);
+			editor.closeFile(path, checksum);
+			for (int i = 0; i <= open.size(); i++) {
+				editor.closeDir();
+			}
+			editor.closeEdit();
+		} catch (SVNException e) {
+			abort(editor);
+			throw e;
+		} catch (RuntimeException e) {
+			abort(editor);
+			throw e;
+		}
+	}
+
+	private static void abort(ISVNEditor editor) {
+		try {
+			editor.abortEdit();
+		} catch (SVNException e) {
+			// the original error is more interesting
+		}
+	}
+
+	/**
+	 * @return operations repeated by weight, to pick from at random
+	 */
+	private LoadOperation[] getMix() {
+		List<LoadOperation> mix = new ArrayList<LoadOperation>();
+		for (Map.Entry<LoadOperation, Integer> w : weights.entrySet()) {
+			for (int i = 0; i < w.getValue(); i++) {
+				mix.add(w.getKey());
+			}
+		}
+		if (mix.isEmpty()) {
+			throw new IllegalStateException("All operation weights are 0");
+		}
+		return mix.toArray(new LoadOperation[mix.size()]);
+	}
+
+	private void seed() {
+		CommitTree tree = new CommitTree();
+		byte[] content = new byte[fileSize];
+		for (int i = 0; i < seedFiles; i++) {
+			tree.file(SEED_FOLDER + "/f" + i + ".xml", content).prop("cms:status", "Released");
+		}
+		for (int i = 0; i < threads; i++) {
+			tree.dir(COMMIT_FOLDER + "/t" + i);
+		}
+		repo.commit(tree, "load seed");
+	}
+
+}
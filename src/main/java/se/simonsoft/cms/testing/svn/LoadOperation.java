@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+/**
+ * Operations in a {@link LoadGenerator} workload.
+ */
+public enum LoadOperation {
+
+	/**
+	 * Commit that adds one file.
+	 */
+	COMMIT,
+	/**
+	 * Read the content of a file at HEAD.
+	 */
+	READ,
+	/**
+	 * Log of the 10 latest revisions.
+	 */
+	LOG,
+	/**
+	 * Read the properties of a file at HEAD.
+	 */
+	PROPGET
+
+}
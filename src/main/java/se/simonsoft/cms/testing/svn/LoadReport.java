@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Result of a {@link LoadGenerator} run, with latency and throughput per operation.
+ */
+public class LoadReport {
+
+	private final int threads;
+	private final long elapsedNanos;
+	private final Map<LoadOperation, TimingStats> timings;
+	private final Map<LoadOperation, Long> errors;
+
+	LoadReport(int threads, long elapsedNanos, Map<LoadOperation, TimingStats> timings, Map<LoadOperation, Long> errors) {
+		this.threads = threads;
+		this.elapsedNanos = elapsedNanos;
+		this.timings = new EnumMap<LoadOperation, TimingStats>(timings);
+		this.errors = new EnumMap<LoadOperation, Long>(errors);
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return latencies of successful operations
+	 */
+	public TimingStats get(LoadOperation operation) {
+		TimingStats stats = timings.get(operation);
+		return stats == null ? new TimingStats() : stats;
+	}
+
+	public long getErrors(LoadOperation operation) {
+		Long count = errors.get(operation);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * @return successful operations per second
+	 */
+	public double getThroughput(LoadOperation operation) {
+		return elapsedNanos == 0 ? 0 : get(operation).getCount() / (elapsedNanos / 1e9);
+	}
+
+	/**
+	 * @return the report as JSON, durations in milliseconds
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"threads\": ").append(threads).append(",\n");
+		json.append("  \"elapsedMs\": ").append(format(elapsedNanos / 1e6)).append(",\n");
+		json.append("  \"operations\": {");
+		String separator = "\n";
+		for (LoadOperation op : LoadOperation.values()) {
+			TimingStats stats = get(op);
+			if (stats.getCount() == 0 && getErrors(op) == 0) {
+				continue;
+			}
+			json.append(separator);
+			separator = ",\n";
+			json.append("    \"").append(op).append("\": {");
+			json.append("\"count\": ").append(stats.getCount());
+			json.append(", \"errors\": ").append(getErrors(op));
+			json.append(", \"throughputPerSecond\": ").append(format(getThroughput(op)));
+			json.append(", \"meanMs\": ").append(format(stats.getMean() / 1e6));
+			json.append(", \"p50Ms\": ").append(format(stats.getPercentile(50) / 1e6));
+			json.append(", \"p90Ms\": ").append(format(stats.getPercentile(90) / 1e6));
+			json.append(", \"p99Ms\": ").append(format(stats.getPercentile(99) / 1e6));
+			json.append(", \"maxMs\": ").append(format(stats.getMax() / 1e6));
+			json.append("}");
+		}
+		json.append("\n  }\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	/**
+	 * @param file written as UTF-8 JSON, parent folders are created
+	 */
+	public void write(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder summary = new StringBuilder("Load with " + threads + " threads for " + format(elapsedNanos / 1e6) + "ms:");
+		for (LoadOperation op : LoadOperation.values()) {
+			TimingStats stats = get(op);
+			if (stats.getCount() > 0 || getErrors(op) > 0) {
+				summary.append("\n ").append(String.format("%-8s", op)).append(' ')
+						.append(String.format("%.1f/s errors=%d ", getThroughput(op), getErrors(op))).append(stats);
+			}
+		}
+		return summary.toString();
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+}
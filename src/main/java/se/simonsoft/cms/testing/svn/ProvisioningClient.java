@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Leases repositories from a {@link ProvisioningDaemon} on the local machine.
+ *
+ * Connections are kept open until the JVM exits, so that the daemon can tear down
+ * repositories that were never returned if the JVM dies.
+ */
+class ProvisioningClient {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final int CONNECT_TIMEOUT = 2000;
+
+	private final int port;
+	private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+	private volatile boolean available = true;
+
+	/**
+	 * @param port daemon port on the loopback interface
+	 */
+	ProvisioningClient(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * @return false if the daemon could not be reached, and repositories should be created locally
+	 */
+	boolean isAvailable() {
+		return available;
+	}
+
+	/**
+	 * @param name repository name
+	 * @param isCmsName see {@link SvnTestSetup#getRepository(String, boolean)}
+	 * @param profile FSFS settings if the repository is created
+	 * @param dumpfile loaded by the daemon, through its dump cache, null for an empty repository
+	 * @param owner the test thread that asks for the repository
+	 * @return admin path and URL, null if the daemon could not be reached
+	 * @throws RuntimeException if the daemon failed to provide the repository
+	 */
+	String[] lease(String name, boolean isCmsName, FsfsProfile profile, Path dumpfile, Thread owner) {
+		if (!available) {
+			return null;
+		}
+		String response = request(ProvisioningDaemon.LEASE, name, Boolean.toString(isCmsName), profile.name(),
+				dumpfile == null ? "" : dumpfile.toAbsolutePath().toString(),
+				ManagementFactory.getRuntimeMXBean().getName() + "/" + owner.getId());
+		if (response == null) {
+			return null;
+		}
+		String[] fields = response.split("\t", -1);
+		if (fields.length != 2) {
+			throw new RuntimeException("Unexpected response from provisioning daemon: " + response);
+		}
+		return fields;
+	}
+
+	/**
+	 * Tries even if a lease has failed, so that the daemon does not have to wait for this JVM to exit.
+	 * @param adminPath from {@link #lease(String, boolean, FsfsProfile, Path, Thread)}
+	 * @param keep true to keep the repository after tearDown
+	 * @return where the daemon kept the repository or its archive, null if not kept or the daemon went away
+	 */
+	String giveBack(File adminPath, boolean keep) {
+		String kept = request(ProvisioningDaemon.RETURN, adminPath.getAbsolutePath(), Boolean.toString(keep));
+		if (kept == null) {
+			logger.warn("Provisioning daemon went away, test repository {} is left to the daemon's cleanup", adminPath);
+			return null;
+		}
+		return kept.length() > 0 ? kept : null;
+	}
+
+	/**
+	 * Retries once on a new connection, as an idle connection may have been closed by the daemon.
+	 * @return the response after OK, null if the daemon is not available
+	 */
+	private String request(String... fields) {
+		String response;
+		try {
+			response = send(idle.poll(), fields);
+		} catch (IOException e) {
+			logger.debug("Provisioning daemon request failed, retrying on a new connection: {}", e.getMessage());
+			try {
+				response = send(null, fields);
+			} catch (IOException e1) {
+				available = false;
+				logger.warn("Provisioning daemon not available on port {}, creating test repositories in this JVM: {}", port, e1.getMessage());
+				return null;
+			}
+		}
+		if (response.startsWith(ProvisioningDaemon.ERR)) {
+			throw new RuntimeException("Provisioning daemon failed: " + response.substring(ProvisioningDaemon.ERR.length()).trim());
+		}
+		return response.substring(ProvisioningDaemon.OK.length()).trim();
+	}
+
+	/**
+	 * @param c an idle connection, null to connect
+	 */
+	private String send(Connection c, String... fields) throws IOException {
+		Connection connection = c;
+		try {
+			if (connection == null) {
+				Socket socket = new Socket();
+				socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+				connection = new Connection(socket);
+			}
+			String response = connection.send(fields);
+			idle.add(connection);
+			return response;
+		} catch (IOException e) {
+			if (connection != null) {
+				connection.close();
+			}
+			throw e;
+		}
+	}
+
+	private static class Connection {
+
+		private final Socket socket;
+		private final BufferedReader in;
+		private final Writer out;
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			this.out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+		}
+
+		String send(String... fields) throws IOException {
+			StringBuilder line = new StringBuilder();
+			for (String f : fields) {
+				if (line.length() > 0) {
+					line.append('\t');
+				}
+				line.append(f);
+			}
+			out.write(line.append('\n').toString());
+			out.flush();
+			String response = in.readLine();
+			if (response == null) {
+				throw new IOException("Connection closed by provisioning daemon");
+			}
+			return response;
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing to clean up
+			}
+		}
+
+	}
+
+}
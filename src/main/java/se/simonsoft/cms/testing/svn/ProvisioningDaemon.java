@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-lived process that creates test repositories for all test JVMs on the machine,
+ * so that discovery, SVNKit bootstrap, the repository pool and the dump cache are shared between Surefire forks.
+ *
+ * Test JVMs use the daemon when the system property {@value SvnTestSetup#PROPERTY_DAEMON} is set to its port,
+ * and fall back to creating repositories themselves if it can not be reached.
+ * Repositories leased by a test JVM that disconnects without returning them are torn down.
+ *
+ * The protocol is one tab separated request line per response line, on the loopback interface:
+ * <pre>
+ * LEASE name isCmsName profile dumpfile owner  -> OK adminPath url
+ * RETURN adminPath keep                        -> OK [keptPath]
+ * </pre>
+ * Failures are reported as ERR and a message.
+ * The owner identifies the test that asks, so that a test asking twice for a name fails
+ * while other tests wait for it, regardless of which connection each request is sent on.
+ */
+public class ProvisioningDaemon {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	static final String LEASE = "LEASE";
+	static final String RETURN = "RETURN";
+	static final String OK = "OK";
+	static final String ERR = "ERR";
+
+	private static final int POOL_SIZE = 8;
+
+	private final SvnTestSetup setup;
+	private final Map<String, CmsTestRepository> leased = new ConcurrentHashMap<String, CmsTestRepository>();
+	private ServerSocket server = null;
+
+	/**
+	 * @param setup creates the repositories, configured with the pool, dump cache and profile to share
+	 */
+	public ProvisioningDaemon(SvnTestSetup setup) {
+		this.setup = setup;
+	}
+
+	/**
+	 * Starts accepting connections on a background thread.
+	 * @param port on the loopback interface, 0 for any free port
+	 * @return the port
+	 */
+	public synchronized int start(int port) throws IOException {
+		if (server != null) {
+			throw new IllegalStateException("Provisioning daemon already started on port " + server.getLocalPort());
+		}
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		final ServerSocket accepting = server;
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!accepting.isClosed()) {
+					try {
+						serve(accepting.accept());
+					} catch (IOException e) {
+						if (!accepting.isClosed()) {
+							logger.warn("Provisioning daemon failed to accept connection: {}", e.getMessage());
+						}
+					}
+				}
+			}
+		}, "cms-testing-daemon");
+		t.setDaemon(true);
+		t.start();
+		logger.info("Provisioning daemon listening on port {}", server.getLocalPort());
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting connections and tears down all leased repositories that are not kept.
+	 */
+	public synchronized void close() {
+		if (server == null) {
+			return;
+		}
+		try {
+			server.close();
+		} catch (IOException e) {
+			logger.debug("Failed to close provisioning daemon socket: {}", e.getMessage());
+		}
+		server = null;
+		for (Map.Entry<String, CmsTestRepository> l : leased.entrySet()) {
+			discard(l.getKey(), l.getValue());
+		}
+	}
+
+	/**
+	 * @return number of repositories currently leased by test JVMs
+	 */
+	public int getLeased() {
+		return leased.size();
+	}
+
+	private void serve(final Socket socket) {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// Repositories leased over this connection, for cleanup if the test JVM dies
+				Map<String, CmsTestRepository> owned = new LinkedHashMap<String, CmsTestRepository>();
+				try {
+					BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+					Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+					String line;
+					while ((line = in.readLine()) != null) {
+						out.write(handle(line.split("\t", -1), owned) + "\n");
+						out.flush();
+					}
+				} catch (SocketException e) {
+					logger.debug("Test JVM disconnected: {}", e.getMessage());
+				} catch (IOException e) {
+					logger.warn("Provisioning daemon connection failed: {}", e.getMessage());
+				} finally {
+					try {
+						socket.close();
+					} catch (IOException e) {
+						logger.debug("Failed to close connection: {}", e.getMessage());
+					}
+					for (Map.Entry<String, CmsTestRepository> o : owned.entrySet()) {
+						if (discard(o.getKey(), o.getValue())) {
+							logger.warn("Test JVM disconnected without returning test repository {}", o.getKey());
+						}
+					}
+				}
+			}
+		}, "cms-testing-daemon-connection");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * @param owned repositories leased over the connection, a repository may be returned over another connection
+	 */
+	private String handle(String[] request, Map<String, CmsTestRepository> owned) {
+		try {
+			if (LEASE.equals(request[0]) && request.length == 6) {
+				CmsTestRepository repo = lease(request[1], Boolean.parseBoolean(request[2]), FsfsProfile.valueOf(request[3]), request[4], request[5]);
+				String adminPath = repo.getAdminPath().getAbsolutePath();
+				owned.put(adminPath, repo);
+				return OK + "\t" + adminPath + "\t" + repo.getUrl();
+			}
+			if (RETURN.equals(request[0]) && request.length == 3) {
+				String kept = giveBack(request[1], Boolean.parseBoolean(request[2]));
+				owned.remove(request[1]);
+				return kept == null ? OK : OK + "\t" + kept;
+			}
+			return ERR + "\tUnknown request " + request[0];
+		} catch (RuntimeException e) {
+			logger.warn("Provisioning daemon request {} failed: {}", request[0], e.getMessage(), e);
+			return ERR + "\t" + String.valueOf(e.getMessage()).replace('\n', ' ');
+		}
+	}
+
+	private CmsTestRepository lease(String name, boolean isCmsName, FsfsProfile profile, String dumpfile, String owner) {
+		CmsTestRepository repo = setup.createRepositoryLocal(name, isCmsName, profile, owner);
+		if (dumpfile.length() > 0) {
+			try {
+				repo.load(Paths.get(dumpfile));
+			} catch (RuntimeException e) {
+				setup.tearDown(repo);
+				throw e;
+			}
+		}
+		leased.put(repo.getAdminPath().getAbsolutePath(), repo);
+		return repo;
+	}
+
+	/**
+	 * @return where the kept repository or its archive is, null if not kept
+	 */
+	private String giveBack(String adminPath, boolean keep) {
+		CmsTestRepository repo = leased.remove(adminPath);
+		if (repo == null) {
+			throw new IllegalArgumentException("Test repository " + adminPath + " is not leased");
+		}
+		if (keep) {
+			repo.setKeep(true);
+		}
+		return setup.tearDown(repo);
+	}
+
+	/**
+	 * @param repo the lease to end, not a later lease of the same admin path
+	 * @return true if the repository was still leased
+	 */
+	private boolean discard(String adminPath, CmsTestRepository repo) {
+		if (!leased.remove(adminPath, repo)) {
+			return false;
+		}
+		setup.tearDown(repo);
+		return true;
+	}
+
+	/**
+	 * Runs the daemon until the process is killed, with a repository pool and the default dump cache.
+	 * @param args the port, default from {@value SvnTestSetup#PROPERTY_DAEMON}
+	 */
+	public static void main(String[] args) throws Exception {
+		String port = args.length > 0 ? args[0] : System.getProperty(SvnTestSetup.PROPERTY_DAEMON);
+		if (port == null) {
+			throw new IllegalArgumentException("Port is required, as argument or system property " + SvnTestSetup.PROPERTY_DAEMON);
+		}
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		setup.setDaemonPort(0); // this is the daemon
+		setup.setDumpCache(SvnTestSetup.DUMP_CACHE_DEFAULT);
+		setup.setPoolSize(POOL_SIZE);
+		final ProvisioningDaemon daemon = new ProvisioningDaemon(setup);
+		daemon.start(Integer.parseInt(port));
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				daemon.close();
+			}
+		}, "cms-testing-daemon-close"));
+		Thread.sleep(Long.MAX_VALUE);
+	}
+
+}
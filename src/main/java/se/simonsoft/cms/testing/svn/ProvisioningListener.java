@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+/**
+ * Receives timings for each phase of repository provisioning, see {@link SvnTestSetup#addListener(ProvisioningListener)}.
+ * May be called from any thread.
+ */
+public interface ProvisioningListener {
+
+	/**
+	 * @param phase the completed phase
+	 * @param repository repository name
+	 * @param nanos elapsed time
+	 */
+	void onPhase(ProvisioningPhase phase, String repository, long nanos);
+
+}
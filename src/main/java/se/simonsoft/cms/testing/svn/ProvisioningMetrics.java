@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Collects {@link TimingStats} per {@link ProvisioningPhase}.
+ */
+public class ProvisioningMetrics implements ProvisioningListener {
+
+	private final Map<ProvisioningPhase, TimingStats> phases = new EnumMap<ProvisioningPhase, TimingStats>(ProvisioningPhase.class);
+
+	public ProvisioningMetrics() {
+		for (ProvisioningPhase p : ProvisioningPhase.values()) {
+			phases.put(p, new TimingStats());
+		}
+	}
+
+	@Override
+	public void onPhase(ProvisioningPhase phase, String repository, long nanos) {
+		phases.get(phase).add(nanos);
+	}
+
+	/**
+	 * @return timings recorded so far
+	 */
+	public TimingStats get(ProvisioningPhase phase) {
+		return phases.get(phase);
+	}
+
+	/**
+	 * @return one line per phase that has been recorded
+	 */
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder("Test repository provisioning:");
+		for (ProvisioningPhase p : ProvisioningPhase.values()) {
+			TimingStats stats = phases.get(p);
+			if (stats.getCount() > 0) {
+				summary.append("\n ").append(String.format("%-11s", p)).append(' ').append(stats);
+			}
+		}
+		return summary.toString();
+	}
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+/**
+ * The timed phases of a test repository's life cycle, see {@link ProvisioningListener}.
+ */
+public enum ProvisioningPhase {
+
+	/**
+	 * Waiting for the repository name to be free.
+	 */
+	LEASE,
+	/**
+	 * Renaming a repository from the pool.
+	 */
+	POOL,
+	/**
+	 * Creating the repository in the local file system.
+	 */
+	CREATE,
+	/**
+	 * Setting group write permissions.
+	 */
+	CHMOD,
+	/**
+	 * Checking that the repository files Apache needs exist and are group writable.
+	 */
+	READY,
+	/**
+	 * Setting up the SVNKit connection.
+	 */
+	CONNECT,
+	/**
+	 * Verifying the connection with a request to the repository.
+	 */
+	VERIFY,
+	/**
+	 * Loading a dumpfile.
+	 */
+	LOAD,
+	/**
+	 * Loading a dumpfile from the dump cache.
+	 */
+	LOAD_CACHED,
+	/**
+	 * Deleting, or keeping, the repository.
+	 */
+	TEARDOWN
+
+}
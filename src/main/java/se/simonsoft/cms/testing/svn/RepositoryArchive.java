@@ -0,0 +1,347 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+import org.tmatesoft.svn.core.wc.SVNWCUtil;
+import org.tmatesoft.svn.core.wc.admin.SVNAdminClient;
+
+/**
+ * Keeps repositories as compressed, deltified dumpfiles instead of live folders in the svn parent path.
+ *
+ * The repository is renamed to a staging folder in its parent path at tearDown, then dumped and deleted
+ * on a background thread. Each staged repository has a lock file that is locked until its dump completes,
+ * so repositories left by JVMs that exited before the dump completed can be told from those of running builds,
+ * and are dumped by the next JVM that archives to the same parent path.
+ * Each archive has a properties file with the repository name, URL, revision and UUID,
+ * staged with the repository and moved next to the archive when the dump completes.
+ * Repositories that fail to dump are left in the staging folder with a marker file, for manual cleanup.
+ */
+class RepositoryArchive {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	static final String STAGING_FOLDER = ".archive";
+	static final String SUFFIX = ".svndump.gz";
+	static final String METADATA_SUFFIX = ".properties";
+	private static final String LOCK_SUFFIX = ".lock";
+	private static final String FAILED_SUFFIX = ".failed";
+
+	/**
+	 * Closing any channel to a file may release this JVM's lock on it, so locks held here are never opened again.
+	 */
+	private static final Set<File> held = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+	static final String NAME = "name";
+	static final String URL = "url";
+	static final String REVISION = "revision";
+	static final String UUID = "uuid";
+	static final String CMS_NAME = "cmsName";
+	static final String ARCHIVED = "archived";
+
+	private final File folder;
+	private final ExecutorService dumper;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final Object flushed = new Object();
+	private final Set<File> stagingFolders = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+	/**
+	 * @param folder where archives are written, created if missing
+	 */
+	RepositoryArchive(File folder) {
+		this.folder = folder;
+		this.dumper = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "cms-testing-archive");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Writes the metadata, moves the repository out of the parent path and schedules the dump.
+	 * @param repo repository at tearDown, with no open connections
+	 * @param archiveName base name of the archive files
+	 * @return the archive, complete after {@link #flush(long)}
+	 */
+	File archive(CmsTestRepository repo, String archiveName) {
+		File dir = repo.getAdminPath();
+		File staging = new File(dir.getParentFile(), STAGING_FOLDER);
+		if (stagingFolders.add(staging)) {
+			staging.mkdir();
+			resumeLeftovers(staging);
+		}
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new RuntimeException("Failed to create archive folder " + folder.getAbsolutePath());
+		}
+		FileLock lock = lock(new File(staging, archiveName + LOCK_SUFFIX));
+		if (lock == null) {
+			throw new IllegalStateException("Archive " + archiveName + " is already being written");
+		}
+		Properties metadata = new Properties();
+		metadata.setProperty(NAME, repo.getName());
+		metadata.setProperty(URL, repo.getUrl());
+		metadata.setProperty(CMS_NAME, Boolean.toString(repo.isRenameAtKeep()));
+		metadata.setProperty(ARCHIVED, Long.toString(System.currentTimeMillis()));
+		try {
+			metadata.setProperty(REVISION, Long.toString(FsfsBaseline.readHead(dir)));
+			metadata.setProperty(UUID, new String(Files.readAllBytes(new File(dir, "db/uuid").toPath()), StandardCharsets.US_ASCII).split("\n")[0].trim());
+			OutputStream out = new FileOutputStream(new File(staging, archiveName + METADATA_SUFFIX));
+			try {
+				metadata.store(out, "Test repository archive");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			release(lock, new File(staging, archiveName + LOCK_SUFFIX));
+			throw new RuntimeException("Failed to write archive metadata for test repository " + repo.getName(), e);
+		}
+		File staged = new File(staging, archiveName);
+		if (!dir.renameTo(staged)) {
+			logger.debug("Failed to move {} to archive staging, dumping in place", dir);
+			staged = dir;
+		}
+		schedule(staged, staging, archiveName, lock);
+		return new File(folder, archiveName + SUFFIX);
+	}
+
+	/**
+	 * Schedules staged repositories whose lock can be taken, i.e. not being dumped by a running JVM.
+	 */
+	private void resumeLeftovers(File staging) {
+		File[] leftovers = staging.listFiles();
+		if (leftovers == null) {
+			return;
+		}
+		for (File f : leftovers) {
+			if (!f.isDirectory()) {
+				continue;
+			}
+			if (new File(staging, f.getName() + FAILED_SUFFIX).exists()) {
+				logger.debug("Not resuming archive of test repository {}, it failed before", f.getName());
+				continue;
+			}
+			File lockFile = new File(staging, f.getName() + LOCK_SUFFIX);
+			FileLock lock = lock(lockFile);
+			if (lock == null) {
+				continue;
+			}
+			if (!f.isDirectory()) {
+				// Completed while we were listing
+				release(lock, lockFile);
+				continue;
+			}
+			logger.info("Resuming archive of test repository {}", f.getName());
+			schedule(f, staging, f.getName(), lock);
+		}
+	}
+
+	private void schedule(final File dir, final File staging, final String archiveName, final FileLock lock) {
+		pending.incrementAndGet();
+		dumper.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					dump(dir, staging, archiveName);
+				} finally {
+					release(lock, new File(staging, archiveName + LOCK_SUFFIX));
+					if (pending.decrementAndGet() == 0) {
+						synchronized (flushed) {
+							flushed.notifyAll();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private void dump(File dir, File staging, String archiveName) {
+		File archive = new File(folder, archiveName + SUFFIX);
+		File tmp = new File(folder, archiveName + SUFFIX + ".tmp");
+		File metadata = new File(staging, archiveName + METADATA_SUFFIX);
+		try {
+			OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), DumpfileStreams.BUFFER_SIZE), 64 * 1024);
+			try {
+				SVNAdminClient svnadmin = new SVNAdminClient(SVNWCUtil.createDefaultAuthenticationManager(), null);
+				svnadmin.doDump(dir, out, SVNRevision.create(0), SVNRevision.HEAD, false, true);
+			} catch (SVNException e) {
+				throw new IOException("Dump failed: " + e.getMessage(), e);
+			} finally {
+				out.close();
+			}
+			// Metadata first, so that it is there when the archive appears
+			File moved = new File(folder, archiveName + METADATA_SUFFIX);
+			if (metadata.exists()) {
+				Files.move(metadata.toPath(), moved.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} else if (!moved.exists()) {
+				logger.warn("Archiving test repository to {} without metadata", archive);
+			}
+			if (!tmp.renameTo(archive)) {
+				throw new IOException("Failed to rename " + tmp + " to " + archive);
+			}
+		} catch (IOException e) {
+			logger.warn("Failed to archive test repository, kept at {}: {}", dir, e.getMessage(), e);
+			tmp.delete();
+			// Marked so that later JVMs do not retry the same failure forever
+			try {
+				Files.write(new File(staging, archiveName + FAILED_SUFFIX).toPath(), String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e1) {
+				logger.warn("Failed to mark archive {} as failed: {}", archiveName, e1.getMessage());
+			}
+			return;
+		}
+		try {
+			FileUtils.deleteDirectory(dir);
+		} catch (IOException e) {
+			logger.warn("Archived test repository to {} but failed to delete {}: {}", archive, dir, e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the lock, null if it is held by this or another JVM
+	 */
+	private FileLock lock(File lockFile) {
+		if (!held.add(lockFile.getAbsoluteFile())) {
+			return null;
+		}
+		RandomAccessFile access = null;
+		try {
+			access = new RandomAccessFile(lockFile, "rw");
+			FileLock lock = access.getChannel().tryLock();
+			if (lock != null) {
+				return lock;
+			}
+		} catch (OverlappingFileLockException e) {
+			// Being dumped by this JVM
+		} catch (IOException e) {
+			logger.warn("Failed to lock {}: {}", lockFile, e.getMessage());
+		}
+		if (access != null) {
+			try {
+				access.close();
+			} catch (IOException e) {
+				logger.debug("Failed to close {}", lockFile);
+			}
+		}
+		held.remove(lockFile.getAbsoluteFile());
+		return null;
+	}
+
+	/**
+	 * Deletes the lock file before releasing, so that no other JVM locks it after the staged repository is gone.
+	 */
+	private void release(FileLock lock, File lockFile) {
+		lockFile.delete();
+		try {
+			lock.release();
+			lock.channel().close();
+		} catch (IOException e) {
+			logger.debug("Failed to release {}: {}", lockFile, e.getMessage());
+		} finally {
+			held.remove(lockFile.getAbsoluteFile());
+		}
+	}
+
+	/**
+	 * Completes scheduled dumps and stops the background thread.
+	 * @param timeoutMillis max time to wait for dumps
+	 * @return true if all archives are complete, false on timeout
+	 */
+	boolean close(long timeoutMillis) {
+		boolean complete = flush(timeoutMillis);
+		dumper.shutdown();
+		return complete;
+	}
+
+	/**
+	 * Blocks until all scheduled dumps have completed.
+	 * @param timeoutMillis max time to wait
+	 * @return true if all archives are complete, false on timeout
+	 */
+	boolean flush(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (flushed) {
+			while (pending.get() > 0) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					return false;
+				}
+				try {
+					flushed.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param archive a dumpfile from {@link #archive(CmsTestRepository, String)}
+	 * @return the metadata written with the archive
+	 */
+	static Properties readMetadata(File archive) {
+		String name = archive.getName();
+		if (!name.endsWith(SUFFIX)) {
+			throw new IllegalArgumentException("Not a test repository archive: " + archive.getAbsolutePath());
+		}
+		File file = new File(archive.getParentFile(), name.substring(0, name.length() - SUFFIX.length()) + METADATA_SUFFIX);
+		Properties metadata = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				metadata.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Failed to read archive metadata " + file.getAbsolutePath(), e);
+		}
+		return metadata;
+	}
+
+}
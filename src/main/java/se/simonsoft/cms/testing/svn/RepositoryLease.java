@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exclusive right to a repository name in a parent path, shared between JVMs through a file lock.
+ *
+ * The lease file holds the owner while the lease is held and is emptied at release.
+ * The OS releases the lock when a JVM dies, so a lease file that can be locked but still has an owner
+ * was left by a JVM that never ran tearDown, and the repository folder can be reclaimed.
+ */
+class RepositoryLease {
+
+	private static final Logger logger = LoggerFactory.getLogger(RepositoryLease.class);
+
+	private static final long BACKOFF_MAX = 2000L;
+
+	/**
+	 * File locks are per JVM, so owners in this JVM are coordinated here.
+	 */
+	private static final ConcurrentMap<File, Object> held = new ConcurrentHashMap<File, Object>();
+
+	private final File file;
+	private final RandomAccessFile access;
+	private final FileLock lock;
+	private final String previousOwner;
+
+	private RepositoryLease(File file, RandomAccessFile access, FileLock lock, String previousOwner) {
+		this.file = file;
+		this.access = access;
+		this.lock = lock;
+		this.previousOwner = previousOwner;
+	}
+
+	static File getLeaseFile(File parent, String name) {
+		return new File(parent, "." + name + ".lease");
+	}
+
+	/**
+	 * Waits with backoff for the name to be released by other threads or JVMs.
+	 * @param parent the svn parent path
+	 * @param name repository name
+	 * @param timeoutMillis max time to wait
+	 * @return the lease, to be released at tearDown
+	 * @throws IllegalArgumentException if the name is held by the current thread or not released within the timeout
+	 */
+	static RepositoryLease acquire(File parent, String name, long timeoutMillis) {
+		return acquire(parent, name, timeoutMillis, Thread.currentThread());
+	}
+
+	/**
+	 * @param owner the test that asks for the name, for example its thread, if the lease is acquired on its behalf
+	 * @throws IllegalArgumentException if the name is held by the same owner or not released within the timeout
+	 */
+	static RepositoryLease acquire(File parent, String name, long timeoutMillis, Object owner) {
+		File file = getLeaseFile(parent, name);
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long backoff = 10L;
+		while (true) {
+			Object current = held.putIfAbsent(file, owner);
+			if (owner.equals(current)) {
+				throw new IllegalArgumentException("Test repository name " + name + " is already used by this test.");
+			}
+			if (current == null) {
+				RepositoryLease lease = tryLock(file);
+				if (lease != null) {
+					return lease;
+				}
+				held.remove(file);
+			}
+			if (System.currentTimeMillis() > deadline) {
+				throw new IllegalArgumentException("Test repository name " + name + " in use by another test or build, gave up after " + timeoutMillis + " ms.");
+			}
+			logger.debug("Test repository name {} in use, retrying in {} ms", name, backoff);
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted while waiting for repository name " + name, e);
+			}
+			backoff = Math.min(backoff * 2, BACKOFF_MAX);
+		}
+	}
+
+	/**
+	 * Does not wait, and does not create a lease file for names that have none.
+	 * @return the lease, null if there is no lease file or the name is held by this or another JVM
+	 */
+	static RepositoryLease tryAcquire(File parent, String name) {
+		File file = getLeaseFile(parent, name);
+		if (!file.exists()) {
+			return null;
+		}
+		if (held.putIfAbsent(file, Thread.currentThread()) != null) {
+			return null;
+		}
+		RepositoryLease lease = null;
+		try {
+			lease = tryLock(file);
+		} finally {
+			if (lease == null) {
+				held.remove(file);
+			}
+		}
+		return lease;
+	}
+
+	/**
+	 * Reads the lease file without locking it.
+	 * @return the time the current or previous owner took the lease, -1 if released or unknown
+	 */
+	static long getLeaseTime(File parent, String name) {
+		File file = getLeaseFile(parent, name);
+		String owner;
+		try {
+			owner = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+		} catch (IOException e) {
+			return -1;
+		}
+		int space = owner.lastIndexOf(' ');
+		try {
+			return space < 0 ? -1 : Long.parseLong(owner.substring(space + 1));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static RepositoryLease tryLock(File file) {
+		RandomAccessFile access = null;
+		try {
+			access = new RandomAccessFile(file, "rw");
+			FileLock lock = access.getChannel().tryLock();
+			if (lock == null) {
+				access.close();
+				return null;
+			}
+			byte[] content = new byte[(int) access.length()];
+			access.readFully(content);
+			String previousOwner = new String(content, StandardCharsets.UTF_8).trim();
+			access.setLength(0);
+			access.write((ManagementFactory.getRuntimeMXBean().getName() + " " + System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+			access.getFD().sync();
+			return new RepositoryLease(file, access, lock, previousOwner.length() > 0 ? previousOwner : null);
+		} catch (IOException e) {
+			if (access != null) {
+				try {
+					access.close();
+				} catch (IOException e1) {
+					logger.debug("Failed to close lease file {}", file);
+				}
+			}
+			throw new RuntimeException("Failed to lock " + file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * @return true if the previous owner did not release the lease, i.e. crashed or never called tearDown
+	 */
+	boolean isStale() {
+		return previousOwner != null;
+	}
+
+	/**
+	 * @return pid@host and lease time of the previous owner if {@link #isStale()}
+	 */
+	String getPreviousOwner() {
+		return previousOwner;
+	}
+
+	/**
+	 * @param delete true to remove the lease file, only for names that no other JVM will ask for
+	 */
+	void release(boolean delete) {
+		try {
+			access.setLength(0);
+			if (delete) {
+				file.delete();
+			}
+			lock.release();
+			access.close();
+		} catch (IOException e) {
+			logger.warn("Failed to release repository lease {}: {}", file, e.getMessage());
+		} finally {
+			held.remove(file);
+		}
+	}
+
+}
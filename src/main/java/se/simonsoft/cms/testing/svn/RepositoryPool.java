@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import se.simonsoft.cms.item.encoding.Base32;
+
+/**
+ * Anonymous repositories created ahead of time on a background thread,
+ * to be renamed to the requested name when handed out.
+ *
+ * Pooled folders live in the same parent path as the test repositories so that rename is cheap.
+ */
+class RepositoryPool {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	static final String POOL_PREFIX = "pool-";
+
+	private final SvnTestSetup setup;
+	private final File parent;
+	private final int size;
+	private final int lowWatermark;
+
+	private final BlockingQueue<File> ready = new LinkedBlockingQueue<File>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger sequence = new AtomicInteger();
+	private final ExecutorService filler;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * @param setup used for the actual repository creation
+	 * @param parent folder to create pooled repositories in
+	 * @param size the number of repositories to fill up to
+	 * @param lowWatermark refill starts when the number of ready repositories drops to this level
+	 */
+	RepositoryPool(SvnTestSetup setup, File parent, int size, int lowWatermark) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1, got " + size);
+		}
+		if (lowWatermark < 0 || lowWatermark >= size) {
+			throw new IllegalArgumentException("Pool low watermark must be between 0 and " + (size - 1) + ", got " + lowWatermark);
+		}
+		this.setup = setup;
+		this.parent = parent;
+		this.size = size;
+		this.lowWatermark = lowWatermark;
+		this.filler = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "cms-testing-repository-pool");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	int getReadyCount() {
+		return ready.size();
+	}
+
+	/**
+	 * Starts filling the pool up to its size.
+	 */
+	void fill() {
+		if (closed) {
+			return;
+		}
+		int missing = size - ready.size() - pending.get();
+		for (int i = 0; i < missing; i++) {
+			pending.incrementAndGet();
+			filler.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						create();
+					} finally {
+						pending.decrementAndGet();
+					}
+				}
+			});
+		}
+	}
+
+	private void create() {
+		if (closed) {
+			return;
+		}
+		File dir = new File(parent, POOL_PREFIX + new Base32().encode(System.currentTimeMillis()) + "-" + sequence.incrementAndGet());
+		try {
+			setup.createRepositoryFolder(dir);
+		} catch (RuntimeException e) {
+			logger.warn("Failed to create pooled repository {}: {}", dir.getName(), e.getMessage(), e);
+			return;
+		}
+		ready.add(dir);
+		if (closed) {
+			// drain may have run while we were creating
+			delete(ready.poll());
+		}
+	}
+
+	/**
+	 * Renames a pooled repository to the requested folder, refilling the pool when it is running low.
+	 * @param dir the requested repository folder, must not exist
+	 * @return true if a pooled repository now exists at dir, false if the caller should create one
+	 */
+	boolean take(File dir) {
+		if (closed) {
+			return false;
+		}
+		File pooled = ready.poll();
+		if (ready.size() <= lowWatermark) {
+			fill();
+		}
+		if (pooled == null) {
+			logger.debug("Repository pool empty, creating {} directly", dir.getName());
+			return false;
+		}
+		if (!pooled.renameTo(dir)) {
+			logger.debug("Failed to rename pooled repository {} to {}, creating directly", pooled, dir);
+			ready.add(pooled);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Stops handing out and refilling repositories.
+	 */
+	void close() {
+		closed = true;
+		filler.shutdown();
+	}
+
+	/**
+	 * Closes the pool and deletes pooled repositories that were never handed out.
+	 */
+	void drain() {
+		close();
+		File pooled;
+		while ((pooled = ready.poll()) != null) {
+			delete(pooled);
+		}
+	}
+
+	private void delete(File pooled) {
+		if (pooled == null) {
+			return;
+		}
+		try {
+			FileUtils.deleteDirectory(pooled);
+		} catch (IOException e) {
+			logger.warn("Failed to delete pooled repository {}: {}", pooled, e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes generated test repositories left in the parent path by JVMs that crashed or were killed before tearDown.
+ *
+ * A repository is orphaned when its lease file still names an owner but is no longer locked, see {@link RepositoryLease}.
+ * Repositories without a lease file, with a keep marker, or leased more recently than the max age are never touched.
+ * Orphans are handed to the {@link RepositoryTrash} for deletion in parallel.
+ */
+class RepositoryReaper {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	static final String GENERATED_PREFIX = "test-";
+	static final String KEEP_MARKER = "cms-testing.keep";
+
+	private final List<File> parents;
+	private final RepositoryTrash trash;
+	private final long maxAgeMillis;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * @param parents the svn parent path, and any other folder with test repositories
+	 * @param trash deletes orphaned repositories
+	 * @param maxAgeMillis orphans leased more recently than this are left alone, in case the owner is a slow JVM on another host
+	 */
+	RepositoryReaper(List<File> parents, RepositoryTrash trash, long maxAgeMillis) {
+		this.parents = parents;
+		this.trash = trash;
+		this.maxAgeMillis = maxAgeMillis;
+		this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "cms-testing-reaper");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Scans now and then at the interval.
+	 */
+	void start(long intervalMillis) {
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reap();
+				} catch (RuntimeException e) {
+					logger.warn("Failed to reap orphaned test repositories in {}: {}", parents, e.getMessage(), e);
+				}
+			}
+		}, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	void stop() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * @return number of repositories discarded
+	 */
+	int reap() {
+		int reaped = 0;
+		for (File parent : parents) {
+			reaped += reap(parent);
+		}
+		return reaped;
+	}
+
+	private int reap(File parent) {
+		File[] children = parent.listFiles();
+		if (children == null) {
+			return 0;
+		}
+		long now = System.currentTimeMillis();
+		int reaped = 0;
+		for (File dir : children) {
+			String name = dir.getName();
+			if (!name.startsWith(GENERATED_PREFIX) || !dir.isDirectory() || new File(dir, KEEP_MARKER).exists()) {
+				continue;
+			}
+			// Check age before locking, because taking the lease overwrites the owner
+			long leased = RepositoryLease.getLeaseTime(parent, name);
+			if (leased < 0 || now - leased < maxAgeMillis) {
+				continue;
+			}
+			RepositoryLease lease = RepositoryLease.tryAcquire(parent, name);
+			if (lease == null) {
+				continue;
+			}
+			boolean orphan = lease.isStale() && !new File(dir, KEEP_MARKER).exists();
+			try {
+				if (orphan) {
+					logger.info("Deleting test repository {} abandoned by {}", name, lease.getPreviousOwner());
+					trash.discard(dir);
+					reaped++;
+				}
+			} finally {
+				lease.release(orphan);
+			}
+		}
+		return reaped;
+	}
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A repository to create with {@link SvnTestSetup#getRepositories(RepositorySpec...)}, optionally with a dumpfile to load.
+ */
+public class RepositorySpec {
+
+	private final String name;
+	private final boolean cmsName;
+	private Path dumpfile = null;
+	private InputStream dumpStream = null;
+	private DumpfileBuilder.Generator generator = null;
+	private final List<Path> overlays = new ArrayList<Path>();
+
+	/**
+	 * A repository with a generated name, like {@link SvnTestSetup#getRepository()}.
+	 */
+	public RepositorySpec() {
+		this.name = null;
+		this.cmsName = false;
+	}
+
+	/**
+	 * A named repository, like {@link SvnTestSetup#getRepository(String)}.
+	 */
+	public RepositorySpec(String name) {
+		this(name, true);
+	}
+
+	/**
+	 * @param isCmsName see {@link SvnTestSetup#getRepository(String, boolean)}
+	 */
+	public RepositorySpec(String name, boolean isCmsName) {
+		if (name == null) {
+			throw new IllegalArgumentException("Repository name is required, use the default constructor for a generated name");
+		}
+		this.name = name;
+		this.cmsName = isCmsName;
+	}
+
+	/**
+	 * @param dumpfile see {@link CmsTestRepository#load(Path)}
+	 * @return the spec
+	 */
+	public RepositorySpec load(Path dumpfile) {
+		clearDump();
+		this.dumpfile = dumpfile;
+		return this;
+	}
+
+	/**
+	 * @param dumpfile read by a provisioning thread and closed
+	 * @return the spec
+	 */
+	public RepositorySpec load(InputStream dumpfile) {
+		clearDump();
+		this.dumpStream = dumpfile;
+		return this;
+	}
+
+	/**
+	 * @param generator run by a provisioning thread, see {@link DumpfileBuilder#stream(DumpfileBuilder.Generator)}
+	 * @return the spec
+	 */
+	public RepositorySpec load(DumpfileBuilder.Generator generator) {
+		clearDump();
+		this.generator = generator;
+		return this;
+	}
+
+	/**
+	 * @param overlay loaded after the dumpfile, see {@link CmsTestRepository#loadOverlay(Path)}
+	 * @return the spec
+	 */
+	public RepositorySpec overlay(Path overlay) {
+		overlays.add(overlay);
+		return this;
+	}
+
+	private void clearDump() {
+		dumpfile = null;
+		dumpStream = null;
+		generator = null;
+	}
+
+	/**
+	 * @return null for a generated name
+	 */
+	String getName() {
+		return name;
+	}
+
+	boolean isCmsName() {
+		return cmsName;
+	}
+
+	/**
+	 * @return the dumpfile if loaded from a path, null otherwise
+	 */
+	Path getDumpfile() {
+		return dumpfile;
+	}
+
+	void loadInto(CmsTestRepository repo) throws IOException {
+		loadBase(repo);
+		loadOverlays(repo);
+	}
+
+	private void loadBase(CmsTestRepository repo) throws IOException {
+		if (dumpfile != null) {
+			repo.load(dumpfile);
+		} else if (dumpStream != null) {
+			try {
+				repo.load(dumpStream);
+			} finally {
+				dumpStream.close();
+			}
+		} else if (generator != null) {
+			InputStream in = DumpfileBuilder.stream(generator);
+			try {
+				repo.load(in);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * For a repository where the dumpfile has already been loaded.
+	 */
+	void loadOverlays(CmsTestRepository repo) {
+		for (Path overlay : overlays) {
+			repo.loadOverlay(overlay);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name == null ? "(generated name)" : name;
+	}
+
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes repositories in the background after renaming them to a trash folder in their parent path.
+ *
+ * Deletes that fail are retried with increasing delay, because Apache may still be creating files in the repository.
+ */
+class RepositoryTrash {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	static final String TRASH_FOLDER = ".trash";
+
+	private static final int RETRY_MAX = 5;
+	private static final long RETRY_DELAY_MILLIS = 500L;
+
+	private final ForkJoinPool deleters;
+	private final ScheduledExecutorService retries;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final Object flushed = new Object();
+	private final Set<File> trashFolders = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+	/**
+	 * @param threads max number of threads used for deletion
+	 */
+	RepositoryTrash(int threads) {
+		this.deleters = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				t.setName("cms-testing-trash-" + t.getPoolIndex());
+				t.setDaemon(true);
+				return t;
+			}
+		}, null, false);
+		this.retries = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "cms-testing-trash-retry");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Moves the folder out of the way and schedules it for deletion.
+	 * @param dir local repository folder
+	 */
+	void discard(File dir) {
+		File trash = new File(dir.getParentFile(), TRASH_FOLDER);
+		if (trashFolders.add(trash)) {
+			trash.mkdir();
+			emptyLeftovers(trash);
+		}
+		File moved = new File(trash, dir.getName() + "-" + UUID.randomUUID());
+		if (dir.renameTo(moved)) {
+			schedule(moved, 1);
+		} else {
+			logger.debug("Failed to move {} to trash, deleting in place", dir);
+			schedule(dir, 1);
+		}
+	}
+
+	/**
+	 * Schedules deletion of trash from JVMs that did not flush before they exited.
+	 */
+	private void emptyLeftovers(File trash) {
+		File[] leftovers = trash.listFiles();
+		if (leftovers == null) {
+			return;
+		}
+		for (File f : leftovers) {
+			schedule(f, 1);
+		}
+	}
+
+	private void schedule(final File dir, final int attempt) {
+		pending.incrementAndGet();
+		deleters.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					delete(dir, attempt);
+				} finally {
+					if (pending.decrementAndGet() == 0) {
+						synchronized (flushed) {
+							flushed.notifyAll();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private void delete(final File dir, final int attempt) {
+		Queue<IOException> failures = new ConcurrentLinkedQueue<IOException>();
+		new DeleteTree(dir.toPath(), failures).invoke();
+		if (failures.isEmpty()) {
+			return;
+		}
+		if (attempt >= RETRY_MAX) {
+			// Left in the trash folder, the next JVM that discards to this parent path tries again
+			logger.warn("Failed tearDown of test repository after {} attempts: {}", attempt, failures.peek().getMessage(), failures.peek());
+			return;
+		}
+		logger.debug("Retrying delete of {} after {} failures: {}", dir, failures.size(), failures.peek().getMessage());
+		pending.incrementAndGet();
+		retries.schedule(new Runnable() {
+			@Override
+			public void run() {
+				schedule(dir, attempt + 1);
+				pending.decrementAndGet();
+			}
+		}, RETRY_DELAY_MILLIS << (attempt - 1), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Blocks until all scheduled deletes, including retries, have completed.
+	 * @param timeoutMillis max time to wait
+	 * @return true if the trash is empty, false on timeout
+	 */
+	boolean flush(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (flushed) {
+			while (pending.get() > 0) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					return false;
+				}
+				try {
+					flushed.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes subfolders in parallel, then the files and the folder itself.
+	 */
+	private static class DeleteTree extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+		private final Queue<IOException> failures;
+
+		DeleteTree(Path dir, Queue<IOException> failures) {
+			this.dir = dir;
+			this.failures = failures;
+		}
+
+		@Override
+		protected void compute() {
+			File[] children = dir.toFile().listFiles();
+			if (children != null) {
+				List<DeleteTree> subtrees = new ArrayList<DeleteTree>();
+				for (File c : children) {
+					Path p = c.toPath();
+					if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+						subtrees.add(new DeleteTree(p, failures));
+					} else {
+						deleteOne(p);
+					}
+				}
+				ForkJoinTask.invokeAll(subtrees);
+			}
+			deleteOne(dir);
+		}
+
+		private void deleteOne(Path p) {
+			try {
+				Files.deleteIfExists(p);
+			} catch (IOException e) {
+				failures.add(e);
+			}
+		}
+
+	}
+
+}
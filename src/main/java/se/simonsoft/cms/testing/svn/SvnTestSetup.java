@@ -17,11 +17,47 @@ package se.simonsoft.cms.testing.svn;
 
 import java.io.File;
 import java.io.IOException;
-import java.security.KeyManagementException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.GeneralSecurityException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
@@ -34,15 +70,11 @@ import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepository;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
 import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 import org.tmatesoft.svn.util.Version;
 
-import se.repos.restclient.ResponseHeaders;
-import se.repos.restclient.RestClient;
-import se.repos.restclient.RestURL;
-import se.repos.restclient.auth.RestAuthenticationClientCert;
-import se.repos.restclient.javase.RestClientJavaHttp;
 import se.simonsoft.cms.item.encoding.Base32;
 
 public class SvnTestSetup {
@@ -63,59 +95,370 @@ public class SvnTestSetup {
 		
 	};
 	
-	private static SvnTestSetup instance = null;
-	private static long sleepRepositoryCreated = 10L; // Attempt to avoid Permission denied on 'db/txn-current-lock'.
+	/**
+	 * Overrides discovery of {@link #getSvnParentPath()}.
+	 */
+	public static final String PROPERTY_PARENT_PATH = "cms.testing.svn.parentPath";
+	/**
+	 * Overrides discovery of {@link #getSvnHttpParentUrl()}.
+	 */
+	public static final String PROPERTY_PARENT_URL = "cms.testing.svn.parentUrl";
+	
+	/**
+	 * Set to true to access repositories over file:// instead of through Apache, see {@link #setLocal(boolean)}.
+	 */
+	public static final String PROPERTY_LOCAL = "cms.testing.svn.local";
+	
+	/**
+	 * Set to true to print a summary of provisioning timings at JVM shutdown, see {@link #getMetrics()}.
+	 */
+	public static final String PROPERTY_TIMINGS = "cms.testing.svn.timings";
+	
+	/**
+	 * Set to false to make {@link CmsTestRepository#getSvnkitCached()} pass all calls through, see {@link SvnkitCache#setEnabled(boolean)}.
+	 */
+	public static final String PROPERTY_CACHE = "cms.testing.svn.cache";
+	
+	/**
+	 * Name of the {@link FsfsProfile} for new repositories, see {@link #setProfile(FsfsProfile)}.
+	 */
+	public static final String PROPERTY_PROFILE = "cms.testing.svn.profile";
 	
-	private String urlRoot = null;
-	private File pathParent = null;
+	/**
+	 * Parent path for generated repositories, for example on /dev/shm, see {@link #setThrowawayParent(File, String)}.
+	 */
+	public static final String PROPERTY_THROWAWAY_PARENT_PATH = "cms.testing.svn.throwawayParentPath";
+	/**
+	 * Parent URL that Apache serves {@value #PROPERTY_THROWAWAY_PARENT_PATH} at, not needed in local mode.
+	 */
+	public static final String PROPERTY_THROWAWAY_PARENT_URL = "cms.testing.svn.throwawayParentUrl";
 	
-	private List<CmsTestRepository> testRepositories = new LinkedList<CmsTestRepository>();
+	/**
+	 * Port of a {@link ProvisioningDaemon} on the local machine to lease repositories from, see {@link #setDaemonPort(int)}.
+	 */
+	public static final String PROPERTY_DAEMON = "cms.testing.svn.daemon";
 	
-	private SvnTestSetup() {}
+	/**
+	 * Folder to archive kept repositories to, see {@link #setKeepArchive(File)}.
+	 */
+	public static final String PROPERTY_KEEP_ARCHIVE = "cms.testing.svn.keepArchive";
 	
+	private static final long DISCOVERY_TIMEOUT = 5000L;
+	private static final int PROBE_TIMEOUT = 2000;
+	
+	private static volatile SvnTestSetup instance = null;
+	private static final AtomicBoolean svnkitBootstrapped = new AtomicBoolean(false);
+	// Files that must be in place and group writable before Apache can commit, see Permission denied on 'db/txn-current-lock'.
+	private static final String[] READY_FILES = { "format", "db/current", "db/txn-current-lock", "db/write-lock" };
+	
+	private volatile String urlRoot = null;
+	private volatile File pathParent = null;
+	private DiscoveryCache discoveryCache = null;
+	private volatile boolean local = Boolean.getBoolean(PROPERTY_LOCAL);
+	private volatile boolean verifyConnection = false;
+	private volatile FsfsProfile profile = FsfsProfile.valueOf(System.getProperty(PROPERTY_PROFILE, FsfsProfile.DEFAULT.name()).toUpperCase(Locale.ROOT));
+	private volatile File throwawayPath = System.getProperty(PROPERTY_THROWAWAY_PARENT_PATH) == null ? null : new File(System.getProperty(PROPERTY_THROWAWAY_PARENT_PATH));
+	private volatile String throwawayUrl = System.getProperty(PROPERTY_THROWAWAY_PARENT_URL);
+	private volatile ProvisioningClient daemon = System.getProperty(PROPERTY_DAEMON) == null ? null : new ProvisioningClient(Integer.parseInt(System.getProperty(PROPERTY_DAEMON)));
+	
+	/**
+	 * Repositories to tear down, per owner thread so that tests can run in parallel.
+	 * Not a ThreadLocal, so that repositories owned by threads that have ended, like a JUnit timeout thread,
+	 * can be torn down by the next {@link #tearDown()}.
+	 */
+	private final ConcurrentMap<Thread, List<CmsTestRepository>> testRepositories = new ConcurrentHashMap<Thread, List<CmsTestRepository>>();
+	
+	private final AtomicLong testNameTime = new AtomicLong();
+	private volatile long leaseTimeout = 120000L;
+	private volatile int provisioningThreads = 4;
+	
+	/**
+	 * Default location for {@link #setDumpCache(File)}, shared by all builds on the machine.
+	 */
+	public static final File DUMP_CACHE_DEFAULT = new File(System.getProperty("java.io.tmpdir"), "cms-testing-dumpcache");
+	private static final long DUMP_CACHE_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+	private static final long DUMP_CACHE_MAX_AGE = 7L * 24 * 3600 * 1000;
+	
+	private volatile RepositoryPool pool = null;
+	private volatile DumpCache dumpCache = null;
+	private final WorkingCopyCache workingCopyCache = new WorkingCopyCache(new File(System.getProperty("java.io.tmpdir"), "cms-testing-wc"));
+	private static final long TRASH_FLUSH_TIMEOUT = 60000L;
+	private RepositoryTrash trash = null;
+	private volatile boolean tearDownAsync = false;
+	private static final long REAPER_INTERVAL = 10L * 60 * 1000;
+	private RepositoryReaper reaper = null;
+	private static final long ARCHIVE_FLUSH_TIMEOUT = 300000L;
+	private volatile RepositoryArchive archive = null;
+	private boolean archiveFlushHook = false;
+	private List<RepositoryPool> poolsRetired = new LinkedList<RepositoryPool>();
+	private boolean poolDrainHook = false;
+	
+	private final ProvisioningMetrics metrics = new ProvisioningMetrics();
+	private final List<ProvisioningListener> listeners = new CopyOnWriteArrayList<ProvisioningListener>();
+	private final ProvisioningListener dispatcher = new ProvisioningListener() {
+		@Override
+		public void onPhase(ProvisioningPhase phase, String repository, long nanos) {
+			for (ProvisioningListener l : listeners) {
+				l.onPhase(phase, repository, nanos);
+			}
+		}
+	};
+	
+	private SvnTestSetup() {
+		listeners.add(metrics);
+		if (System.getProperty(PROPERTY_KEEP_ARCHIVE) != null) {
+			setKeepArchive(new File(System.getProperty(PROPERTY_KEEP_ARCHIVE)));
+		}
+		if (Boolean.getBoolean(PROPERTY_TIMINGS)) {
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					System.out.println(metrics.getSummary());
+				}
+			}, "cms-testing-timings"));
+		}
+	}
+	
+	/**
+	 * @return the shared instance, safe to use from tests that run in parallel
+	 */
 	public static SvnTestSetup getInstance() {
-		if (instance == null) instance = new SvnTestSetup();
+		if (instance == null) {
+			synchronized (SvnTestSetup.class) {
+				if (instance == null) instance = new SvnTestSetup();
+			}
+		}
 		return instance;
 	}
 	
 	public File getSvnParentPath() {
 		if (pathParent == null) {
-			pathParent = trySvnParentPaths();
+			synchronized (this) {
+				if (pathParent == null) pathParent = discoverSvnParentPath();
+			}
 		}
 		return pathParent;
 	}
 	
+	private File discoverSvnParentPath() {
+		String override = System.getProperty(PROPERTY_PARENT_PATH);
+		if (override != null) {
+			return new File(override);
+		}
+		File cached = getDiscoveryCache().getPath();
+		if (cached != null) {
+			if (isSvnParentPath(cached)) {
+				return cached;
+			}
+			getDiscoveryCache().invalidatePath();
+		}
+		File found;
+		try {
+			found = trySvnParentPaths();
+		} catch (RuntimeException e) {
+			if (!local) {
+				throw e;
+			}
+			found = new File(System.getProperty("java.io.tmpdir"), "cms-testing-svn");
+			found.mkdir();
+			logger.info("No svn parent path found, using {} for local repositories", found);
+			return found;
+		}
+		getDiscoveryCache().setPath(found);
+		return found;
+	}
+	
 	File trySvnParentPaths() {
 		StringBuffer tried = new StringBuffer();
 		for (String p : TRY_PATHS) {
 			tried.append(", ").append(p);
 			File f = new File(p);
-			if (f.exists() && f.isDirectory() && f.canWrite()) {
+			if (isSvnParentPath(f)) {
 				return f;
 			}
 		}
 		throw new RuntimeException("Svn test setup failed to find a suitable parent path among: " + tried.substring(2));
 	}
 	
+	private boolean isSvnParentPath(File f) {
+		return f.exists() && f.isDirectory() && f.canWrite();
+	}
+	
 	/**
 	 * @return repository parent URL, corresponding to {@link #getSvnParentPath()}, with trailing slash (just append repository name)
 	 */
 	public String getSvnHttpParentUrl() {
 		if (urlRoot == null) {
-			urlRoot = trySvnHttpParentUrls();	
+			synchronized (this) {
+				if (urlRoot == null) urlRoot = discoverSvnHttpParentUrl();
+			}
 		}
 		return urlRoot;
 	}
 	
+	private String discoverSvnHttpParentUrl() {
+		String override = System.getProperty(PROPERTY_PARENT_URL);
+		if (override != null) {
+			return override.endsWith("/") ? override : override + "/";
+		}
+		String cached = getDiscoveryCache().getUrl();
+		if (cached != null) {
+			if (isHttpUrlSvnParentQuietly(cached)) {
+				return cached;
+			}
+			getDiscoveryCache().invalidateUrl();
+		}
+		String found = trySvnHttpParentUrls();
+		getDiscoveryCache().setUrl(found);
+		return found;
+	}
+	
+	/**
+	 * @return parent URL to append repository name to, file:// in {@link #setLocal(boolean)} mode
+	 */
+	private String getSvnParentUrl() {
+		if (!local) {
+			return getSvnHttpParentUrl();
+		}
+		try {
+			return SVNURL.fromFile(getSvnParentPath()).toString() + "/";
+		} catch (SVNException e) {
+			throw new RuntimeException("Invalid svn parent path " + getSvnParentPath(), e);
+		}
+	}
+	
+	/**
+	 * In local mode repositories are accessed over file:// so that no Apache server is needed,
+	 * for tests that need a real repository but not the DAV layer.
+	 * Default is the boolean system property {@value #PROPERTY_LOCAL}.
+	 * @param local true to access new repositories over file://
+	 */
+	public void setLocal(boolean local) {
+		this.local = local;
+	}
+	
+	public boolean isLocal() {
+		return local;
+	}
+	
+	/**
+	 * @param profile FSFS settings for repositories created from now on, default from {@value #PROPERTY_PROFILE}
+	 */
+	public void setProfile(FsfsProfile profile) {
+		this.profile = profile;
+	}
+	
+	public FsfsProfile getProfile() {
+		return profile;
+	}
+	
+	/**
+	 * Places generated repositories, those from {@link #getRepository()} and not named by the test,
+	 * in a separate parent path such as a folder on /dev/shm, so that fixture-heavy tests are not limited by disk I/O.
+	 * Apache needs an SVNParentPath location for the folder, unless in {@link #setLocal(boolean)} mode.
+	 * Default from {@value #PROPERTY_THROWAWAY_PARENT_PATH} and {@value #PROPERTY_THROWAWAY_PARENT_URL}.
+	 * @param parentPath folder for generated repositories, created if missing, null to use {@link #getSvnParentPath()}
+	 * @param parentUrl URL that Apache serves the folder at, null in local mode
+	 */
+	public void setThrowawayParent(File parentPath, String parentUrl) {
+		if (parentPath != null) {
+			parentPath.mkdirs();
+			if (!isSvnParentPath(parentPath)) {
+				throw new IllegalArgumentException("Throwaway parent path " + parentPath.getAbsolutePath() + " is not a writable folder");
+			}
+		}
+		this.throwawayPath = parentPath;
+		this.throwawayUrl = parentUrl;
+	}
+	
+	/**
+	 * Leases repositories from a {@link ProvisioningDaemon} instead of creating them in this JVM.
+	 * If the daemon can not be reached repositories are created locally, with a warning.
+	 * The daemon's parent path, URL, local mode and pool apply to leased repositories.
+	 * Default from {@value #PROPERTY_DAEMON}.
+	 * @param port daemon port on the loopback interface, 0 to create repositories in this JVM
+	 */
+	public void setDaemonPort(int port) {
+		this.daemon = port == 0 ? null : new ProvisioningClient(port);
+	}
+	
+	/**
+	 * @return parent URL to append repository name to, for a folder in {@link #setThrowawayParent(File, String)}
+	 */
+	private String getThrowawayParentUrl(File parentPath) {
+		if (local) {
+			try {
+				return SVNURL.fromFile(parentPath).toString() + "/";
+			} catch (SVNException e) {
+				throw new RuntimeException("Invalid throwaway parent path " + parentPath, e);
+			}
+		}
+		if (throwawayUrl == null) {
+			throw new IllegalStateException("Throwaway parent path " + parentPath.getAbsolutePath() + " needs a parent URL unless in local mode");
+		}
+		return throwawayUrl.endsWith("/") ? throwawayUrl : throwawayUrl + "/";
+	}
+	
+	private synchronized DiscoveryCache getDiscoveryCache() {
+		if (discoveryCache == null) {
+			discoveryCache = new DiscoveryCache(DiscoveryCache.DEFAULT_FILE);
+		}
+		return discoveryCache;
+	}
+	
+	/**
+	 * Probes all candidates concurrently so that unreachable hosts don't add up their connect timeouts.
+	 * @return the first candidate found to be an svn parent path
+	 */
 	String trySvnHttpParentUrls() {
 		StringBuffer tried = new StringBuffer();
-		for (String u : TRY_URLS) {
-			tried.append(", ").append(u);
-			if (isHttpUrlSvnParent(u)) return u;
+		ExecutorService probes = Executors.newFixedThreadPool(TRY_URLS.length, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "cms-testing-url-discovery");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			CompletionService<String> completion = new ExecutorCompletionService<String>(probes);
+			for (final String u : TRY_URLS) {
+				tried.append(", ").append(u);
+				completion.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return isHttpUrlSvnParentQuietly(u) ? u : null;
+					}
+				});
+			}
+			long deadline = System.currentTimeMillis() + DISCOVERY_TIMEOUT;
+			for (int i = 0; i < TRY_URLS.length; i++) {
+				Future<String> probed = completion.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				if (probed == null) {
+					break;
+				}
+				String u = probed.get();
+				if (u != null) return u;
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Svn test setup interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Svn test setup failed", e.getCause());
+		} finally {
+			probes.shutdownNow();
 		}
 		throw new RuntimeException("Svn test setup failed because none of these URLS were found to be an svn parent path: " + tried.substring(2));
 	}
 	
+	private boolean isHttpUrlSvnParentQuietly(String httpUrl) {
+		try {
+			return isHttpUrlSvnParent(httpUrl);
+		} catch (RuntimeException e) {
+			logger.debug("Rejecting URL {} due to error: {}", httpUrl, e.toString());
+			return false;
+		}
+	}
+	
 	public String getSvnHttpUsername(String repositoryRootUrl) {
 		return "testuser";
 	}
@@ -125,33 +468,50 @@ public class SvnTestSetup {
 	}
 	
 	private boolean isHttpUrlSvnParent(String httpUrl) {
-		
-		RestURL restUrl = new RestURL(httpUrl);
-		RestAuthenticationClientCert auth = null;
+		HttpURLConnection conn;
 		try {
-			auth = new RestAuthenticationClientCert(getIgnoringTrustManager(), null, "testuser", "testpassword");
-		} catch (KeyManagementException e1) {
-			//Should not happen, so won't handle the error.
-			e1.printStackTrace();
+			conn = (HttpURLConnection) new URL(httpUrl).openConnection();
+		} catch (IOException e) {
+			throw new RuntimeException("Invalid URL " + httpUrl, e);
 		}
-		RestClient restClientJavaNet = new RestClientJavaHttp(restUrl.r(), auth);
-		ResponseHeaders head;
-		
+		// Strict timeouts, so that a dead host does not stall every test JVM for the OS connect timeout
+		conn.setConnectTimeout(PROBE_TIMEOUT);
+		conn.setReadTimeout(PROBE_TIMEOUT);
+		conn.setInstanceFollowRedirects(false);
+		if (conn instanceof HttpsURLConnection) {
+			HttpsURLConnection https = (HttpsURLConnection) conn;
+			try {
+				SSLContext ssl = SSLContext.getInstance("TLS");
+				ssl.init(null, new TrustManager[] { getIgnoringTrustManager() }, null);
+				https.setSSLSocketFactory(ssl.getSocketFactory());
+			} catch (GeneralSecurityException e) {
+				throw new RuntimeException("Failed to set up TLS for " + httpUrl, e);
+			}
+			https.setHostnameVerifier(new HostnameVerifier() {
+				@Override
+				public boolean verify(String hostname, SSLSession session) {
+					return true;
+				}
+			});
+		}
+		int status;
 		try {
-			
-			head = restClientJavaNet.head(restUrl.p());
-		} catch (java.net.ConnectException ec) {
-			logger.debug("Rejecting URL", restUrl, "due to connection error:", ec.toString());
-			return false;
+			conn.setRequestMethod("HEAD");
+			String credentials = getSvnHttpUsername(httpUrl) + ":" + getSvnHttpPassword(httpUrl);
+			conn.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+			status = conn.getResponseCode();
 		} catch (IOException e) {
-			throw new RuntimeException("Svn test setup failed", e);
+			logger.debug("Rejecting URL {} due to connection error: {}", httpUrl, e.toString());
+			return false;
+		} finally {
+			conn.disconnect();
 		}
-		if (head.getStatus() != 200 && head.getStatus() != 401) {
-			logger.debug("Rejecting URL", restUrl, "due to status", head.getStatus());
+		if (status != 200 && status != 401) {
+			logger.debug("Rejecting URL {} due to status {}", httpUrl, status);
 			return false;
 		}
 		// TODO check for "Colleciton of repositories"
-		logger.debug("URL", restUrl, "ok with content type", head.getContentType());
+		logger.debug("URL {} ok with content type {}", httpUrl, conn.getContentType());
 		return true;
 	}
 	/**
@@ -180,7 +540,21 @@ public class SvnTestSetup {
 	}
 
 	private String getTestName() {
-		return "test-" + new Base32().encode(System.currentTimeMillis()) + "." + getCaller();
+		return "test-" + new Base32().encode(nextTestNameTime()) + "." + getCaller();
+	}
+	
+	/**
+	 * @return current time in millis, but always later than the previous call so that names are unique within the JVM
+	 */
+	private long nextTestNameTime() {
+		long now = System.currentTimeMillis();
+		while (true) {
+			long last = testNameTime.get();
+			long next = Math.max(now, last + 1);
+			if (testNameTime.compareAndSet(last, next)) {
+				return next;
+			}
+		}
 	}
 	
 	public CmsTestRepository getRepository(String name) {
@@ -191,58 +565,551 @@ public class SvnTestSetup {
 	 * @param isCmsName true if the name is important for the test due to cms functionality
 	 */
 	public CmsTestRepository getRepository(String name, boolean isCmsName) {
-		String url = getSvnHttpParentUrl() + name;
-		File dir = new File(getSvnParentPath(), name);
-		// TODO might need to wait and retry if name is taken because build server may run simultaneous builds with modules using the same repository name (common for CMS tests)
-		if (dir.exists()) {
-			throw new IllegalArgumentException("Test repository folder " + dir.getAbsolutePath() + " already exists. Remove manually and rerun test.");
+		CmsTestRepository repo = createRepository(name, isCmsName, Thread.currentThread());
+		getTestRepositories().add(repo);
+		return repo;
+	}
+	
+	/**
+	 * Creates and loads repositories concurrently, so that setup takes as long as the slowest one.
+	 * If any of them fails, those that were created are torn down before the exception is thrown.
+	 * Call {@link #tearDown()} after test, from the calling thread.
+	 * @param specs repositories to create
+	 * @return the repositories, in the order of the specs
+	 */
+	public List<CmsTestRepository> getRepositories(RepositorySpec... specs) {
+		final String[] names = new String[specs.length];
+		for (int i = 0; i < specs.length; i++) {
+			// Generated names include the caller, so they are assigned on this thread
+			names[i] = specs[i].getName() == null ? getTestName() : specs[i].getName();
 		}
-		
+		if (specs.length == 0) {
+			return new ArrayList<CmsTestRepository>();
+		}
+		// Names are leased for the test thread, not the provisioning thread that happens to create them
+		final Thread caller = Thread.currentThread();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(specs.length, provisioningThreads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "cms-testing-provisioning");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		List<Future<CmsTestRepository>> futures = new ArrayList<Future<CmsTestRepository>>(specs.length);
 		try {
-			SVNRepositoryFactory.createLocalRepository(dir, true, false);
+			for (int i = 0; i < specs.length; i++) {
+				final RepositorySpec spec = specs[i];
+				final String name = names[i];
+				futures.add(executor.submit(new Callable<CmsTestRepository>() {
+					@Override
+					public CmsTestRepository call() throws Exception {
+						if (spec.getDumpfile() != null) {
+							// The daemon loads through its own dump cache
+							CmsTestRepository leased = leaseRepository(name, spec.isCmsName(), spec.getDumpfile(), caller);
+							if (leased != null) {
+								try {
+									spec.loadOverlays(leased);
+								} catch (RuntimeException e) {
+									tearDown(leased);
+									throw e;
+								}
+								return leased;
+							}
+						}
+						CmsTestRepository repo = createRepository(name, spec.isCmsName(), caller);
+						try {
+							spec.loadInto(repo);
+						} catch (Exception e) {
+							tearDown(repo);
+							throw e;
+						}
+						return repo;
+					}
+				}));
+			}
+		} finally {
+			executor.shutdown();
+		}
+		List<CmsTestRepository> repos = new ArrayList<CmsTestRepository>(specs.length);
+		Throwable failure = null;
+		String failed = null;
+		boolean interrupted = false;
+		for (int i = 0; i < futures.size(); i++) {
+			Future<CmsTestRepository> f = futures.get(i);
+			if (failure != null) {
+				f.cancel(false);
+			}
+			while (true) {
+				try {
+					repos.add(f.get());
+					break;
+				} catch (InterruptedException e) {
+					// Wait anyway, or repositories still being created would not be torn down
+					interrupted = true;
+					if (failure == null) {
+						failure = e;
+						failed = names[i];
+					}
+				} catch (CancellationException e) {
+					break;
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+						failed = names[i];
+					}
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			for (CmsTestRepository r : repos) {
+				tearDown(r);
+			}
+			throw new RuntimeException("Failed to provision test repository " + failed + ", " + repos.size() + " others rolled back", failure);
+		}
+		getTestRepositories().addAll(repos);
+		return repos;
+	}
+	
+	/**
+	 * @param threads max number of repositories that {@link #getRepositories(RepositorySpec...)} creates concurrently
+	 */
+	public void setProvisioningThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Provisioning threads must be at least 1, got " + threads);
+		}
+		this.provisioningThreads = threads;
+	}
+	
+	/**
+	 * Creates a repository, or leases one from the daemon, without registering it for {@link #tearDown()}.
+	 */
+	private CmsTestRepository createRepository(String name, boolean isCmsName, Thread owner) {
+		CmsTestRepository leased = leaseRepository(name, isCmsName, null, owner);
+		if (leased != null) {
+			return leased;
+		}
+		return createRepositoryLocal(name, isCmsName, profile, owner);
+	}
+	
+	/**
+	 * @param dumpfile to load, null for an empty repository
+	 * @param owner the test thread, that the daemon holds the name lease for
+	 * @return the repository, null if there is no daemon or it could not be reached
+	 */
+	private CmsTestRepository leaseRepository(String name, boolean isCmsName, Path dumpfile, Thread owner) {
+		ProvisioningClient client = daemon;
+		if (client == null || !client.isAvailable()) {
+			return null;
+		}
+		long start = System.nanoTime();
+		String[] leased = client.lease(name, isCmsName, profile, dumpfile, owner);
+		if (leased == null) {
+			return null;
+		}
+		record(ProvisioningPhase.LEASE, name, start);
+		CmsTestRepository repo = connect(new File(leased[0]), leased[1]);
+		repo.setRenameAtKeep(isCmsName);
+		repo.setProvisioningClient(client);
+		return repo;
+	}
+	
+	/**
+	 * Creates a repository in this JVM without registering it for {@link #tearDown()}.
+	 * @param profile FSFS settings, pooled repositories are only used if it is the current {@link #getProfile()}
+	 * @param owner holds the name lease, a test asking twice for the same name fails instead of waiting for itself
+	 */
+	CmsTestRepository createRepositoryLocal(String name, boolean isCmsName, FsfsProfile profile, Object owner) {
+		File parent = getSvnParentPath();
+		String url = getSvnParentUrl() + name;
+		File throwaway = throwawayPath;
+		if (throwaway != null && !isCmsName) {
+			parent = throwaway;
+			url = getThrowawayParentUrl(throwaway) + name;
+		}
+		File dir = new File(parent, name);
+		// Build server may run simultaneous builds with modules using the same repository name (common for CMS tests)
+		long start = System.nanoTime();
+		RepositoryLease lease = RepositoryLease.acquire(parent, name, leaseTimeout, owner);
+		record(ProvisioningPhase.LEASE, name, start);
+		CmsTestRepository repo;
+		try {
+			if (dir.exists()) {
+				if (!lease.isStale()) {
+					throw new IllegalArgumentException("Test repository folder " + dir.getAbsolutePath() + " already exists. Remove manually and rerun test.");
+				}
+				logger.warn("Reclaiming test repository folder {} abandoned by {}", dir.getAbsolutePath(), lease.getPreviousOwner());
+				try {
+					FileUtils.deleteDirectory(dir);
+				} catch (IOException e) {
+					throw new RuntimeException("Failed to reclaim test repository folder " + dir.getAbsolutePath(), e);
+				}
+			}
+			
+			// Pooled repositories can only be renamed within the same parent path
+			RepositoryPool p = parent.equals(getSvnParentPath()) && profile == this.profile ? pool : null;
+			start = System.nanoTime();
+			if (p != null && p.take(dir)) {
+				record(ProvisioningPhase.POOL, name, start);
+			} else {
+				createRepositoryFolder(dir, profile);
+			}
+			
+			repo = connect(dir, url);
+		} catch (RuntimeException e) {
+			lease.release(!isCmsName);
+			throw e;
+		}
+		repo.setRenameAtKeep(isCmsName);
+		repo.setLease(lease);
+		return repo;
+	}
+	
+	/**
+	 * @param timeoutMillis how long {@link #getRepository(String)} waits for a name used by another test or build
+	 */
+	public void setLeaseTimeout(long timeoutMillis) {
+		this.leaseTimeout = timeoutMillis;
+	}
+	
+	/**
+	 * Enables a pool of repositories that are created ahead of time on a background thread,
+	 * so that {@link #getRepository()} only needs to rename and connect.
+	 * Pooled repositories that are never handed out are deleted at JVM shutdown,
+	 * or at the next {@link #tearDown()} if the pool has been disabled.
+	 * @param size number of repositories to keep ready, 0 to disable the pool
+	 * @param lowWatermark refill is started when the number of ready repositories drops to this level
+	 */
+	public synchronized void setPoolSize(int size, int lowWatermark) {
+		if (pool != null) {
+			pool.close();
+			poolsRetired.add(pool);
+			pool = null;
+		}
+		if (size > 0) {
+			pool = new RepositoryPool(this, getSvnParentPath(), size, lowWatermark);
+			pool.fill();
+			if (!poolDrainHook) {
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						drainPools();
+					}
+				}, "cms-testing-repository-pool-drain"));
+				poolDrainHook = true;
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the repositories that are ready in the current pool and in retired pools.
+	 */
+	private synchronized void drainPools() {
+		if (pool != null) {
+			pool.drain();
+		}
+		for (RepositoryPool p : poolsRetired) {
+			p.drain();
+		}
+		poolsRetired.clear();
+	}
+	
+	/**
+	 * Enables a pool that is refilled when half of it has been handed out.
+	 * @param size number of repositories to keep ready, 0 to disable the pool
+	 * @see #setPoolSize(int, int)
+	 */
+	public void setPoolSize(int size) {
+		setPoolSize(size, size / 2);
+	}
+	
+	/**
+	 * Enables caching of loaded dumpfiles, so that {@link CmsTestRepository#load(java.io.InputStream)}
+	 * into an empty repository copies the result of a previous load instead of replaying all revisions.
+	 * The cache is shared between JVMs that use the same folder.
+	 * @param folder cache folder, null to disable
+	 * @param maxBytes least recently used entries are evicted when the cache grows beyond this size
+	 * @param maxAgeMillis entries not used for this long are evicted
+	 */
+	public void setDumpCache(File folder, long maxBytes, long maxAgeMillis) {
+		dumpCache = folder == null ? null : new DumpCache(this, folder, maxBytes, maxAgeMillis);
+	}
+	
+	/**
+	 * Enables caching of loaded dumpfiles with a 2 GB size limit and 7 days max age.
+	 * @param folder cache folder, for example {@link #DUMP_CACHE_DEFAULT}, null to disable
+	 * @see #setDumpCache(File, long, long)
+	 */
+	public void setDumpCache(File folder) {
+		setDumpCache(folder, DUMP_CACHE_MAX_BYTES, DUMP_CACHE_MAX_AGE);
+	}
+	
+	/**
+	 * With async tearDown, repositories are renamed to a trash folder in the parent path and deleted on background threads.
+	 * Deletes are retried if Apache is still writing to the repository, and any remaining trash is flushed at JVM shutdown.
+	 * @param async true to return from {@link #tearDown()} without waiting for repositories to be deleted
+	 */
+	public void setTearDownAsync(boolean async) {
+		if (async) {
+			getTrash();
+		}
+		this.tearDownAsync = async;
+	}
+	
+	/**
+	 * Starts a low priority background thread that deletes generated test repositories
+	 * left in the parent path by test JVMs that crashed or were killed before tearDown.
+	 * Only repositories whose lease has been abandoned are deleted, never kept or named repositories.
+	 * Also scans the {@link #setThrowawayParent(File, String)} folder if set before the reaper is started.
+	 * @param maxAgeMillis abandoned repositories leased more recently than this are left alone, 0 to stop the reaper
+	 */
+	public synchronized void setReaper(long maxAgeMillis) {
+		if (reaper != null) {
+			reaper.stop();
+			reaper = null;
+		}
+		if (maxAgeMillis > 0) {
+			List<File> parents = new ArrayList<File>();
+			parents.add(getSvnParentPath());
+			if (throwawayPath != null && !throwawayPath.equals(getSvnParentPath())) {
+				parents.add(throwawayPath);
+			}
+			reaper = new RepositoryReaper(parents, getTrash(), maxAgeMillis);
+			reaper.start(REAPER_INTERVAL);
+		}
+	}
+	
+	/**
+	 * Kept repositories are dumped to a compressed archive on a background thread and then deleted,
+	 * instead of being left in the svn parent path. Pending archives are completed at JVM shutdown.
+	 * Default from {@value #PROPERTY_KEEP_ARCHIVE}.
+	 * The previous archive folder, if any, is completed before this method returns.
+	 * @param folder for archives and their metadata, null to keep repositories in the parent path
+	 * @see #restoreArchive(File)
+	 */
+	public void setKeepArchive(File folder) {
+		RepositoryArchive previous;
+		synchronized (this) {
+			previous = archive;
+			archive = folder == null ? null : new RepositoryArchive(folder);
+			if (archive != null && !archiveFlushHook) {
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						RepositoryArchive a = archive;
+						if (a != null && !a.flush(ARCHIVE_FLUSH_TIMEOUT)) {
+							System.out.println("Test repository archives not completed within " + ARCHIVE_FLUSH_TIMEOUT + " ms");
+						}
+					}
+				}, "cms-testing-archive-flush"));
+				archiveFlushHook = true;
+			}
+		}
+		if (previous != null && !previous.close(ARCHIVE_FLUSH_TIMEOUT)) {
+			logger.warn("Test repository archives not completed within {} ms", ARCHIVE_FLUSH_TIMEOUT);
+		}
+	}
+	
+	/**
+	 * Loads an archived repository into a new repository, with the archived name if it was important to the test.
+	 * Call {@link #tearDown()} after investigation.
+	 * @param archive dumpfile from {@link #setKeepArchive(File)}, with its metadata file next to it
+	 * @return the restored repository
+	 */
+	public CmsTestRepository restoreArchive(File archive) {
+		Properties metadata = RepositoryArchive.readMetadata(archive);
+		CmsTestRepository repo;
+		if (Boolean.parseBoolean(metadata.getProperty(RepositoryArchive.CMS_NAME))) {
+			repo = getRepository(metadata.getProperty(RepositoryArchive.NAME), true);
+		} else {
+			repo = getRepository();
+		}
+		// Archives would only push fixtures out of the dump cache
+		repo.loadUncached(archive.toPath());
+		long expected = Long.parseLong(metadata.getProperty(RepositoryArchive.REVISION));
+		try {
+			if (repo.getSvnkit().getLatestRevision() != expected) {
+				throw new IllegalStateException("Archive " + archive.getName() + " restored to revision " + repo.getSvnkit().getLatestRevision() + ", expected " + expected);
+			}
 		} catch (SVNException e) {
 			throw new RuntimeException("Error not handled", e);
 		}
-		
-		try {
-			Thread.sleep(sleepRepositoryCreated);
-		} catch (InterruptedException e) {
-			throw new RuntimeException("Error while sleeping", e);
+		return repo;
+	}
+	
+	private synchronized RepositoryTrash getTrash() {
+		if (trash == null) {
+			trash = new RepositoryTrash(Math.min(4, Runtime.getRuntime().availableProcessors()));
+			final RepositoryTrash flushed = trash;
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					if (!flushed.flush(TRASH_FLUSH_TIMEOUT)) {
+						System.out.println("Test repository trash not emptied within " + TRASH_FLUSH_TIMEOUT + " ms");
+					}
+				}
+			}, "cms-testing-trash-flush"));
 		}
-		chmodNewRepository(dir);
+		return trash;
+	}
+	
+	/**
+	 * Creates the repository in the local file system, ready to be served by Apache.
+	 * @param dir The local repository folder, must not exist
+	 */
+	void createRepositoryFolder(File dir) {
+		createRepositoryFolder(dir, profile);
+	}
+	
+	private void createRepositoryFolder(File dir, FsfsProfile profile) {
+		long start = System.nanoTime();
 		try {
-			Thread.sleep(sleepRepositoryCreated);
-		} catch (InterruptedException e) {
-			throw new RuntimeException("Error while sleeping", e);
+			SVNRepositoryFactory.createLocalRepository(dir, true, false);
+		} catch (SVNException e) {
+			throw new RuntimeException("Error not handled", e);
 		}
+		profile.apply(dir);
+		record(ProvisioningPhase.CREATE, dir.getName(), start);
 		
-		CmsTestRepository repo = connect(dir, url);
-		repo.setRenameAtKeep(isCmsName);
-		testRepositories.add(repo);
-		
-		return repo;
+		start = System.nanoTime();
+		chmodNewRepository(dir);
+		record(ProvisioningPhase.CHMOD, dir.getName(), start);
+		start = System.nanoTime();
+		verifyRepositoryReady(dir);
+		record(ProvisioningPhase.READY, dir.getName(), start);
+	}
+	
+	/**
+	 * Global SVNKit setup, once per JVM.
+	 */
+	private static void bootstrapSvnkit() {
+		if (svnkitBootstrapped.get()) {
+			return;
+		}
+		synchronized (svnkitBootstrapped) {
+			if (svnkitBootstrapped.get()) {
+				return;
+			}
+			DAVRepositoryFactory.setup();
+			FSRepositoryFactory.setup();
+			String version = Version.getMajorVersion() + "." + Version.getMinorVersion() + "." + Version.getMicroVersion();
+			String revNumber = Version.getRevisionString();
+			String verMsg = MessageFormatter.format("SVNKit version {}", new Object[] { version + " (r" + revNumber + ")" }).getMessage();
+			Logger logger = LoggerFactory.getLogger(SvnTestSetup.class);
+			logger.info(verMsg);
+			logger.warn("Enabling HttpV2 support in DAVRepository instances.");
+			svnkitBootstrapped.set(true);
+		}
+	}
+	
+	/**
+	 * By default the connection to a new repository is not verified until {@link CmsTestRepository#verify()},
+	 * because the repository URL is derived from the parent URL and name.
+	 * @param verifyConnection true to verify with a request to the repository when connecting
+	 */
+	public void setVerifyConnection(boolean verifyConnection) {
+		this.verifyConnection = verifyConnection;
+	}
+	
+	/**
+	 * @param listener to receive timings for each provisioning phase, from any thread
+	 */
+	public void addListener(ProvisioningListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeListener(ProvisioningListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * @return timings of all provisioning phases in this JVM
+	 */
+	public ProvisioningMetrics getMetrics() {
+		return metrics;
+	}
+	
+	private void record(ProvisioningPhase phase, String repository, long startNanos) {
+		dispatcher.onPhase(phase, repository, System.nanoTime() - startNanos);
 	}
 
 	/**
 	 * Set permissions so that the repository will be read-writable both by apache and test runner locally.
 	 * @param dir The local repository folder
 	 */
-	private void chmodNewRepository(File dir) {
+	void chmodNewRepository(File dir) {
 		File dav = new File(dir, "dav");
 		dav.mkdir();
 		new File(dav, "activities.d").mkdir(); // owned by wwwrun and not group writable on jenkins server
-		// java.nio.file.attribute.PosixFileAttributes is Java 1.7 only
 		try {
-			String cmd = "chmod -R g+w " + dir.getAbsolutePath();
-			//logger.debug("Running {}", cmd);
-			Runtime.getRuntime().exec(cmd);
+			Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+					return addGroupWrite(d) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+				}
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					addGroupWrite(file);
+					return FileVisitResult.CONTINUE;
+				}
+			});
 		} catch (IOException e) {
 			logger.info("Recursive chmod failed", e);
 		}
-		
+	}
+	
+	/**
+	 * Like chmod -R, failure on individual files (typically owned by apache) does not stop the walk.
+	 * @return false if the file system does not support posix permissions
+	 */
+	private boolean addGroupWrite(Path path) {
+		PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+		if (view == null) {
+			return false;
+		}
+		try {
+			Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+			if (permissions.add(PosixFilePermission.GROUP_WRITE)) {
+				view.setPermissions(permissions);
+			}
+		} catch (IOException e) {
+			logger.debug("Failed to set group write on {}: {}", path, e.getMessage());
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks that the files Apache needs for a commit exist and are group writable, see {@link #chmodNewRepository(File)}.
+	 * Creation and chmod are synchronous, so there is nothing to wait for, but a failed chmod would otherwise
+	 * only show as Permission denied on the first commit through Apache.
+	 * @param dir The local repository folder
+	 */
+	private void verifyRepositoryReady(File dir) {
+		for (String f : READY_FILES) {
+			Path file = new File(dir, f).toPath();
+			if (!Files.exists(file)) {
+				throw new IllegalStateException("Test repository " + dir.getAbsolutePath() + " is missing " + f);
+			}
+			PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+			if (view == null) {
+				continue;
+			}
+			try {
+				if (!view.readAttributes().permissions().contains(PosixFilePermission.GROUP_WRITE)) {
+					throw new IllegalStateException("Test repository file " + file + " is not group writable, Apache will fail to commit");
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to read permissions of " + file, e);
+			}
+		}
 	}
 
 	public CmsTestRepository connect(File localRepositoryDir, String repositoryRootUrl) {
+		long start = System.nanoTime();
 		SVNURL svnurl;
 		try {
 			svnurl = SVNURL.parseURIEncoded(repositoryRootUrl);
@@ -250,62 +1117,191 @@ public class SvnTestSetup {
 			throw new RuntimeException("Error not handled", e);
 		}
 		
-		String version = Version.getMajorVersion() + "." + Version.getMinorVersion() + "." + Version.getMicroVersion();
-		String revNumber = Version.getRevisionString();
-		String verMsg = MessageFormatter.format("SVNKit version {}", new Object[] { version + " (r" + revNumber + ")" }).getMessage();
-		logger.info(verMsg);
-
+		String svnHttpUsername = getSvnHttpUsername(repositoryRootUrl);
+		String svnHttpPassword = getSvnHttpPassword(repositoryRootUrl);
+		SVNRepository svnkit = createSvnkit(svnurl, svnHttpUsername, svnHttpPassword);
+		
+		record(ProvisioningPhase.CONNECT, localRepositoryDir.getName(), start);
 		
+		String url = repositoryRootUrl.endsWith("/") ? repositoryRootUrl.substring(0, repositoryRootUrl.length() - 1) : repositoryRootUrl;
+		CmsTestRepository repo = new CmsTestRepository(svnkit, url, localRepositoryDir, svnHttpUsername, svnHttpPassword);
+		repo.setDumpCache(dumpCache);
+		repo.setWorkingCopyCache(workingCopyCache);
+		repo.setListener(dispatcher);
+		if (verifyConnection) {
+			repo.verify();
+		}
+		return repo;
+	}
+	
+	/**
+	 * @return a new authenticated connection
+	 */
+	static SVNRepository createSvnkit(SVNURL url, String user, String password) {
+		return createSvnkit(url, user, password, null);
+	}
+	
+	/**
+	 * @param cache for reads at fixed revisions, null for a plain connection
+	 * @return a new authenticated connection
+	 */
+	static SVNRepository createSvnkit(SVNURL url, String user, String password, SvnkitCache cache) {
+		bootstrapSvnkit();
 		SVNRepository svnkit;
-		DAVRepositoryFactory.setup();
 		try {
-			svnkit = SVNRepositoryFactory.create(svnurl);
+			if (cache == null) {
+				svnkit = SVNRepositoryFactory.create(url);
+			} else if ("file".equals(url.getProtocol())) {
+				svnkit = new CachingFSRepository(url, cache);
+			} else {
+				svnkit = new CachingDAVRepository(url, cache);
+			}
 			
 			// SVNKit keeps HTTPv2 disabled by default in 1.9.0. 
 			if (svnkit instanceof DAVRepository && true) {
 				DAVRepository dav = (DAVRepository) svnkit; 
 				dav.setHttpV2Enabled(true);
-				logger.warn("Enabled HttpV2 support in DAVRepository instance.");
 			}
 		} catch (SVNException e) {
 			throw new RuntimeException("Error not handled", e);
 		}
-		String svnHttpUsername = getSvnHttpUsername(repositoryRootUrl);
-		String svnHttpPassword = getSvnHttpPassword(repositoryRootUrl);
-		svnkit.setAuthenticationManager(new BasicAuthenticationManager(svnHttpUsername, svnHttpPassword));
-		
-		CmsTestRepository repo = new CmsTestRepository(svnkit, localRepositoryDir, svnHttpUsername, svnHttpPassword);
-		return repo;
+		svnkit.setAuthenticationManager(new BasicAuthenticationManager(user, password));
+		return svnkit;
+	}
+	
+	/**
+	 * @return repositories owned by the current thread
+	 */
+	private List<CmsTestRepository> getTestRepositories() {
+		Thread current = Thread.currentThread();
+		List<CmsTestRepository> repositories = testRepositories.get(current);
+		if (repositories == null) {
+			repositories = Collections.synchronizedList(new LinkedList<CmsTestRepository>());
+			List<CmsTestRepository> existing = testRepositories.putIfAbsent(current, repositories);
+			if (existing != null) {
+				repositories = existing;
+			}
+		}
+		return repositories;
 	}
 	
 	/**
 	 * Always call this after tests, clears temporary files from local file system.
+	 * Affects repositories created by the current thread, and by threads that have ended.
+	 * @see #tearDownAll()
 	 */
 	public void tearDown() {
-		for (CmsTestRepository r : testRepositories) {
+		List<CmsTestRepository> tornDown = new ArrayList<CmsTestRepository>();
+		for (Map.Entry<Thread, List<CmsTestRepository>> owner : testRepositories.entrySet()) {
+			if (owner.getKey() == Thread.currentThread() || !owner.getKey().isAlive()) {
+				takeAll(owner.getKey(), tornDown);
+			}
+		}
+		tearDown(tornDown);
+	}
+	
+	/**
+	 * Tears down the repositories created by all threads, for frameworks that create repositories
+	 * and clean up on different threads, such as JUnit 5 @BeforeAll and @AfterAll on a ForkJoin pool.
+	 * Must not be used while other tests are running.
+	 */
+	public void tearDownAll() {
+		List<CmsTestRepository> tornDown = new ArrayList<CmsTestRepository>();
+		for (Thread owner : testRepositories.keySet()) {
+			takeAll(owner, tornDown);
+		}
+		tearDown(tornDown);
+	}
+	
+	private void takeAll(Thread owner, List<CmsTestRepository> to) {
+		List<CmsTestRepository> repositories = testRepositories.remove(owner);
+		if (repositories != null) {
+			synchronized (repositories) {
+				to.addAll(repositories);
+				repositories.clear();
+			}
+		}
+	}
+	
+	private void tearDown(List<CmsTestRepository> tornDown) {
+		for (CmsTestRepository r : tornDown) {
+			tearDown(r);
+		}
+		synchronized (this) {
+			for (RepositoryPool p : poolsRetired) {
+				p.drain();
+			}
+			poolsRetired.clear();
+		}
+	}
+	
+	/**
+	 * Deletes or keeps a single repository.
+	 * @return where a kept repository or its archive is, null if not kept
+	 */
+	String tearDown(CmsTestRepository r) {
+		long start = System.nanoTime();
+		r.closeConnections();
+		for (File wc : r.getWorkingCopies()) {
 			if (r.isKeep()) {
-				if (r.isRenameAtKeep()) {
-					String name = r.getName() + "-" + getTestName();
-					File dest = new File(r.getAdminPath().getParentFile(), name);
-					r.getAdminPath().renameTo(dest);
-					System.out.println("Test repository " + r.getName() + " kept at:"
-							+ "\n" + dest.getAbsolutePath());
-				} else {
-					System.out.println("Test repository " + r.getName() + " kept at:"
-							+ "\n file://" + r.getAdminPath().getAbsolutePath()
-							+ "\n " + r.getUrl());
-				}
+				System.out.println("Working copy of test repository " + r.getName() + " kept at:"
+						+ "\n" + wc.getAbsolutePath());
 			} else {
-				try {
-					FileUtils.deleteDirectory(r.getAdminPath());
-				} catch (IOException e) {
-					// With SVNKit 10.1 the tearDown fails to delete files. Possibly newer repo format triggering additional files created by Apache.
-					logger.warn("Failed tearDown of test repository: {}", e.getMessage(), e);
-					//throw new RuntimeException("Error not handled", e);
-				}
+				FileUtils.deleteQuietly(wc);
+			}
+		}
+		r.getWorkingCopies().clear();
+		ProvisioningClient client = r.getProvisioningClient();
+		if (client != null) {
+			String kept = client.giveBack(r.getAdminPath(), r.isKeep());
+			if (r.isKeep()) {
+				// The daemon may have renamed or archived it
+				System.out.println("Test repository " + r.getName() + " kept by provisioning daemon at:"
+						+ "\n" + (kept != null ? kept : r.getAdminPath().getAbsolutePath()));
 			}
+			record(ProvisioningPhase.TEARDOWN, r.getName(), start);
+			return kept;
+		}
+		String kept = null;
+		RepositoryArchive a = archive;
+		if (r.isKeep() && a != null) {
+			String name = r.isRenameAtKeep() ? r.getName() + "-" + getTestName() : r.getName();
+			File dest = a.archive(r, name);
+			kept = dest.getAbsolutePath();
+			System.out.println("Test repository " + r.getName() + " archived to:"
+					+ "\n" + dest.getAbsolutePath());
+		} else if (r.isKeep()) {
+			if (r.isRenameAtKeep()) {
+				String name = r.getName() + "-" + getTestName();
+				File dest = new File(r.getAdminPath().getParentFile(), name);
+				r.getAdminPath().renameTo(dest);
+				kept = dest.getAbsolutePath();
+				System.out.println("Test repository " + r.getName() + " kept at:"
+						+ "\n" + dest.getAbsolutePath());
+			} else {
+				kept = r.getAdminPath().getAbsolutePath();
+				System.out.println("Test repository " + r.getName() + " kept at:"
+						+ "\n file://" + r.getAdminPath().getAbsolutePath()
+						+ "\n " + r.getUrl());
+			}
+		} else if (tearDownAsync) {
+			getTrash().discard(r.getAdminPath());
+		} else {
+			try {
+				FileUtils.deleteDirectory(r.getAdminPath());
+			} catch (IOException e) {
+				// With SVNKit 10.1 the tearDown fails to delete files. Possibly newer repo format triggering additional files created by Apache.
+				logger.warn("Failed tearDown of test repository: {}", e.getMessage(), e);
+				//throw new RuntimeException("Error not handled", e);
+			}
+		}
+		RepositoryLease lease = r.getLease();
+		if (lease != null) {
+			lease.release(!r.isRenameAtKeep());
+			r.setLease(null);
 		}
-		testRepositories.clear();
+		record(ProvisioningPhase.TEARDOWN, r.getName(), start);
+		return kept;
 	}
 	
 	private String getCaller() {
@@ -0,0 +1,357 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.tmatesoft.svn.core.ISVNDirEntryHandler;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+/**
+ * Read-through cache for {@link SVNRepository} calls at explicit revisions, which have immutable results.
+ * Calls at HEAD resolve the youngest revision first, then use the cache.
+ *
+ * Memory is bounded with least recently used eviction.
+ * Revision properties can change at any time, through any connection, so they are not cached.
+ */
+public class SvnkitCache {
+
+	/**
+	 * Files larger than this are passed through without caching.
+	 */
+	static final int MAX_FILE_SIZE = 1024 * 1024;
+
+	private static final long ENTRY_OVERHEAD = 200;
+
+	private static final Object NONE = new Object();
+
+	/**
+	 * The uncached operations, implemented by the caching repository classes by calling super.
+	 */
+	interface Backend {
+
+		/**
+		 * @return the path from the repository root, so that keys do not depend on the session location
+		 */
+		String getRepositoryPath(String path) throws SVNException;
+
+		long getLatestRevision() throws SVNException;
+
+		SVNDirEntry info(String path, long revision) throws SVNException;
+
+		long getFile(String path, long revision, SVNProperties properties, OutputStream contents) throws SVNException;
+
+		long getDir(String path, long revision, SVNProperties properties, ISVNDirEntryHandler handler) throws SVNException;
+
+	}
+
+	private static class Cached {
+
+		private final Object value;
+		private final long weight;
+
+		Cached(Object value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+
+	}
+
+	private static class FileContent {
+
+		private final byte[] content;
+		private final SVNProperties properties;
+
+		FileContent(byte[] content, SVNProperties properties) {
+			this.content = content;
+			this.properties = properties;
+		}
+
+	}
+
+	private static class DirListing {
+
+		private final List<SVNDirEntry> entries;
+		private final SVNProperties properties;
+
+		DirListing(List<SVNDirEntry> entries, SVNProperties properties) {
+			this.entries = entries;
+			this.properties = properties;
+		}
+
+	}
+
+	private final long maxBytes;
+	private final LinkedHashMap<String, Cached> entries = new LinkedHashMap<String, Cached>(64, 0.75f, true);
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private volatile boolean enabled = true;
+
+	/**
+	 * @param maxBytes approximate memory limit
+	 */
+	public SvnkitCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param enabled false to pass all calls through, without clearing
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return approximate memory use
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes all entries, for example after the repository has been reset to an earlier revision.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "hits=" + hits + " misses=" + misses + " entries=" + entries.size() + " bytes=" + bytes;
+	}
+
+	SVNDirEntry info(Backend backend, String path, long revision) throws SVNException {
+		if (!enabled) {
+			return backend.info(path, revision);
+		}
+		long r = resolve(backend, revision);
+		String key = "info:" + r + ":" + backend.getRepositoryPath(path);
+		Object cached = get(key);
+		if (cached != null) {
+			return cached == NONE ? null : (SVNDirEntry) cached;
+		}
+		SVNDirEntry entry = backend.info(path, r);
+		put(key, entry == null ? NONE : entry, ENTRY_OVERHEAD);
+		return entry;
+	}
+
+	long getFile(Backend backend, String path, long revision, SVNProperties properties, OutputStream contents) throws SVNException {
+		if (!enabled) {
+			return backend.getFile(path, revision, properties, contents);
+		}
+		long r = resolve(backend, revision);
+		String repositoryPath = backend.getRepositoryPath(path);
+		String key = "file:" + r + ":" + repositoryPath;
+		if (contents == null) {
+			return getFileProperties(backend, path, r, key, "props:" + r + ":" + repositoryPath, properties);
+		}
+		Object cached = get(key);
+		if (cached != null) {
+			FileContent file = (FileContent) cached;
+			if (properties != null) {
+				properties.putAll(file.properties);
+			}
+			if (contents != null) {
+				try {
+					contents.write(file.content);
+				} catch (IOException e) {
+					throw new RuntimeException("Failed to write cached content of " + path, e);
+				}
+			}
+			return r;
+		}
+		SVNProperties props = new SVNProperties();
+		Tee tee = new Tee(contents);
+		long result = backend.getFile(path, r, props, tee);
+		if (properties != null) {
+			properties.putAll(props);
+		}
+		byte[] content = tee.getCached();
+		if (content != null) {
+			put(key, new FileContent(content, props), ENTRY_OVERHEAD + content.length);
+		}
+		return result;
+	}
+
+	/**
+	 * Serves properties from a cached file, or reads and caches them without downloading the content.
+	 */
+	private long getFileProperties(Backend backend, String path, long r, String fileKey, String key, SVNProperties properties) throws SVNException {
+		Object cached = peek(fileKey);
+		if (cached == null) {
+			cached = get(key);
+		}
+		if (cached != null) {
+			if (properties != null) {
+				properties.putAll(cached instanceof FileContent ? ((FileContent) cached).properties : (SVNProperties) cached);
+			}
+			return r;
+		}
+		SVNProperties props = new SVNProperties();
+		long result = backend.getFile(path, r, props, null);
+		if (properties != null) {
+			properties.putAll(props);
+		}
+		put(key, props, ENTRY_OVERHEAD * (1 + props.size()));
+		return result;
+	}
+
+	long getDir(Backend backend, String path, long revision, SVNProperties properties, ISVNDirEntryHandler handler) throws SVNException {
+		if (!enabled) {
+			return backend.getDir(path, revision, properties, handler);
+		}
+		long r = resolve(backend, revision);
+		String key = "dir:" + r + ":" + backend.getRepositoryPath(path);
+		Object cached = get(key);
+		DirListing dir;
+		if (cached != null) {
+			dir = (DirListing) cached;
+		} else {
+			final List<SVNDirEntry> listed = new ArrayList<SVNDirEntry>();
+			SVNProperties props = new SVNProperties();
+			backend.getDir(path, r, props, new ISVNDirEntryHandler() {
+				@Override
+				public void handleDirEntry(SVNDirEntry dirEntry) throws SVNException {
+					listed.add(dirEntry);
+				}
+			});
+			dir = new DirListing(listed, props);
+			put(key, dir, ENTRY_OVERHEAD * (1 + listed.size()));
+		}
+		if (properties != null) {
+			properties.putAll(dir.properties);
+		}
+		if (handler != null) {
+			for (SVNDirEntry e : dir.entries) {
+				handler.handleDirEntry(e);
+			}
+		}
+		return r;
+	}
+
+	private long resolve(Backend backend, long revision) throws SVNException {
+		return revision < 0 ? backend.getLatestRevision() : revision;
+	}
+
+	/**
+	 * @return the cached value, without counting a miss
+	 */
+	private synchronized Object peek(String key) {
+		Cached c = entries.get(key);
+		if (c == null) {
+			return null;
+		}
+		hits++;
+		return c.value;
+	}
+
+	private synchronized Object get(String key) {
+		Cached c = entries.get(key);
+		if (c == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return c.value;
+	}
+
+	private synchronized void put(String key, Object value, long weight) {
+		Cached previous = entries.put(key, new Cached(value, weight));
+		if (previous != null) {
+			bytes -= previous.weight;
+		}
+		bytes += weight;
+		Iterator<Cached> it = entries.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().weight;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Writes through to the caller's stream and keeps a copy of content up to {@link #MAX_FILE_SIZE}.
+	 */
+	private static class Tee extends OutputStream {
+
+		private final OutputStream target;
+		private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+		Tee(OutputStream target) {
+			this.target = target;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (target != null) {
+				target.write(b);
+			}
+			if (copy != null) {
+				copy.write(b);
+				checkSize();
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (target != null) {
+				target.write(b, off, len);
+			}
+			if (copy != null) {
+				copy.write(b, off, len);
+				checkSize();
+			}
+		}
+
+		private void checkSize() {
+			if (copy.size() > MAX_FILE_SIZE) {
+				copy = null;
+			}
+		}
+
+		byte[] getCached() {
+			return copy == null ? null : copy.toByteArray();
+		}
+
+	}
+
+}
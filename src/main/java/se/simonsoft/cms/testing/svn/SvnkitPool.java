@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Provider;
+
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+/**
+ * Authenticated connections to one test repository, for services under test that use SVNKit from several threads.
+ *
+ * {@link SVNRepository} instances are not thread safe. Use either {@link #getPerThread()},
+ * where each thread keeps its own connection, or {@link #acquire()} and {@link #release(SVNRepository)}
+ * to share a bounded number of connections. Released connections keep their session open for reuse.
+ */
+public class SvnkitPool {
+
+	private final SVNURL url;
+	private final String user;
+	private final String password;
+	private final int maxSize;
+
+	private final Semaphore permits;
+	private final ConcurrentLinkedQueue<SVNRepository> idle = new ConcurrentLinkedQueue<SVNRepository>();
+	private final ConcurrentHashMap<Thread, SVNRepository> perThread = new ConcurrentHashMap<Thread, SVNRepository>();
+	private final List<SVNRepository> created = new CopyOnWriteArrayList<SVNRepository>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private volatile boolean closed = false;
+
+	/**
+	 * @param maxSize number of connections that can be acquired at the same time, not counting per thread connections
+	 */
+	SvnkitPool(SVNURL url, String user, String password, int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1, got " + maxSize);
+		}
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maxSize = maxSize;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * @return provider that gives each calling thread its own connection
+	 */
+	public Provider<SVNRepository> getPerThread() {
+		return new Provider<SVNRepository>() {
+			@Override
+			public SVNRepository get() {
+				checkOpen();
+				Thread current = Thread.currentThread();
+				SVNRepository svnkit = perThread.get(current);
+				if (svnkit != null) {
+					hits.incrementAndGet();
+					return svnkit;
+				}
+				removeEnded();
+				svnkit = create();
+				perThread.put(current, svnkit);
+				return svnkit;
+			}
+		};
+	}
+
+	/**
+	 * Closes the connections of threads that have ended, for example load generator workers from an earlier run.
+	 */
+	private void removeEnded() {
+		Iterator<Map.Entry<Thread, SVNRepository>> it = perThread.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Thread, SVNRepository> e = it.next();
+			if (!e.getKey().isAlive()) {
+				it.remove();
+				created.remove(e.getValue());
+				e.getValue().closeSession();
+			}
+		}
+	}
+
+	/**
+	 * Waits for a connection if all are in use.
+	 * @return a connection that must be returned with {@link #release(SVNRepository)}
+	 */
+	public SVNRepository acquire() {
+		checkOpen();
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for a connection to " + url, e);
+		}
+		return take();
+	}
+
+	/**
+	 * @param timeoutMillis max wait for a connection
+	 * @return a connection, or null if none was available in time
+	 */
+	public SVNRepository acquire(long timeoutMillis) {
+		checkOpen();
+		try {
+			if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				return null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for a connection to " + url, e);
+		}
+		return take();
+	}
+
+	private SVNRepository take() {
+		SVNRepository svnkit = idle.poll();
+		if (svnkit != null) {
+			hits.incrementAndGet();
+			return svnkit;
+		}
+		try {
+			return create();
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param svnkit from {@link #acquire()}
+	 */
+	public void release(SVNRepository svnkit) {
+		if (closed) {
+			svnkit.closeSession();
+		} else {
+			idle.add(svnkit);
+		}
+		permits.release();
+	}
+
+	private SVNRepository create() {
+		misses.incrementAndGet();
+		SVNRepository svnkit = SvnTestSetup.createSvnkit(url, user, password);
+		created.add(svnkit);
+		return svnkit;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Connections to " + url + " have been closed");
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return number of times an existing connection was reused
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of connections created
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of threads that have their own connection
+	 */
+	public int getPerThreadCount() {
+		return perThread.size();
+	}
+
+	/**
+	 * Closes the sessions of all connections but keeps the connections usable, they reconnect on next use.
+	 * There must be no requests in progress.
+	 */
+	void closeSessions() {
+		for (SVNRepository svnkit : created) {
+			svnkit.closeSession();
+		}
+	}
+
+	/**
+	 * Closes the sessions of all connections, including those not yet released.
+	 */
+	void close() {
+		closed = true;
+		for (SVNRepository svnkit : created) {
+			svnkit.closeSession();
+		}
+		created.clear();
+		idle.clear();
+		perThread.clear();
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Recorded durations with count, mean and percentiles. Thread safe.
+ *
+ * Samples are counted in log-scaled buckets, 32 per power of two,
+ * so percentiles are within about 3% of the recorded value and memory does not grow with the count.
+ * Count, total, min and max are exact.
+ */
+public class TimingStats {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(getBucket(Long.MAX_VALUE) + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(0);
+
+	/**
+	 * @param nanos elapsed time
+	 */
+	public void add(long nanos) {
+		long n = Math.max(0, nanos);
+		buckets.incrementAndGet(getBucket(n));
+		total.addAndGet(n);
+		for (long m = min.get(); n < m && !min.compareAndSet(m, n); m = min.get()) {
+		}
+		for (long m = max.get(); n > m && !max.compareAndSet(m, n); m = max.get()) {
+		}
+		count.incrementAndGet();
+	}
+
+	public int getCount() {
+		return (int) count.get();
+	}
+
+	/**
+	 * @return sum of all samples in nanoseconds
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * @return mean in nanoseconds, 0 if there are no samples
+	 */
+	public long getMean() {
+		long c = count.get();
+		return c == 0 ? 0 : total.get() / c;
+	}
+
+	/**
+	 * @param percentile 0 to 100, nearest rank
+	 * @return the upper bound of the bucket holding the sample at the percentile, in nanoseconds,
+	 *         exact for the first and last rank, 0 if there are no samples
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be 0 to 100, got " + percentile);
+		}
+		long c = count.get();
+		if (c == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * c));
+		if (rank == 1) {
+			return min.get();
+		}
+		if (rank >= c) {
+			return max.get();
+		}
+		long seen = 0;
+		int bucket = 0;
+		for (; bucket < buckets.length() - 1; bucket++) {
+			seen += buckets.get(bucket);
+			if (seen >= rank) {
+				break;
+			}
+		}
+		return Math.max(min.get(), Math.min(getUpperBound(bucket), max.get()));
+	}
+
+	public long getMax() {
+		return count.get() == 0 ? 0 : max.get();
+	}
+
+	/**
+	 * @return one line with count, mean and percentiles in milliseconds
+	 */
+	@Override
+	public String toString() {
+		return String.format("count=%d total=%.1fms mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+				getCount(), getTotal() / 1e6, getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(90) / 1e6, getPercentile(99) / 1e6, getMax() / 1e6);
+	}
+
+	static int getBucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+		return shift * SUB_BUCKETS + (int) (nanos >>> shift);
+	}
+
+	static long getUpperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket - shift * SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+}
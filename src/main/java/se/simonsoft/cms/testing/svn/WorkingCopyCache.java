@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+import org.tmatesoft.svn.core.wc2.SvnCheckout;
+import org.tmatesoft.svn.core.wc2.SvnOperationFactory;
+import org.tmatesoft.svn.core.wc2.SvnRelocate;
+import org.tmatesoft.svn.core.wc2.SvnTarget;
+
+/**
+ * Pristine working copies shared between tests, keyed on repository content and revision.
+ * Tests get a local copy of the pristine working copy, relocated to their repository URL.
+ *
+ * Entries are checked out to a temporary folder and renamed into place, like the {@link DumpCache}.
+ */
+class WorkingCopyCache {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final String TMP_PREFIX = ".tmp-";
+	private static final String URL_FILE = "url";
+	private static final long MAX_AGE_MILLIS = 7 * 24 * 3600000L;
+
+	private final File folder;
+
+	/**
+	 * @param folder the cache folder, shared between JVMs, created on first use
+	 */
+	WorkingCopyCache(File folder) {
+		this.folder = folder;
+	}
+
+	/**
+	 * @param repo to check out from
+	 * @param key identifies the content of the repository up to the revision, null to check out without caching
+	 * @param revision to check out
+	 * @param target empty folder for the working copy
+	 */
+	void checkout(CmsTestRepository repo, String key, long revision, File target) {
+		if (key != null) {
+			try {
+				File entry = getEntry(repo, key, revision);
+				FileUtils.copyDirectory(new File(entry, "wc"), target);
+				String from = new String(Files.readAllBytes(new File(entry, URL_FILE).toPath()), StandardCharsets.UTF_8);
+				if (!from.equals(repo.getUrl())) {
+					relocate(repo, target, from);
+				}
+				entry.setLastModified(System.currentTimeMillis());
+				return;
+			} catch (IOException e) {
+				// For example evicted by another build while copying
+				logger.warn("Failed to use cached working copy {}, will check out: {}", key, e.getMessage());
+				FileUtils.deleteQuietly(target);
+			}
+		}
+		checkoutNew(repo, revision, target);
+	}
+
+	private File getEntry(CmsTestRepository repo, String key, long revision) throws IOException {
+		File entry = new File(folder, key);
+		if (entry.isDirectory()) {
+			return entry;
+		}
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("Failed to create working copy cache folder " + folder.getAbsolutePath());
+		}
+		File tmp = new File(folder, TMP_PREFIX + key + "-" + UUID.randomUUID());
+		checkoutNew(repo, revision, new File(tmp, "wc"));
+		Files.write(new File(tmp, URL_FILE).toPath(), repo.getUrl().getBytes(StandardCharsets.UTF_8));
+		try {
+			Files.move(tmp.toPath(), entry.toPath());
+		} catch (IOException e) {
+			// Most likely another build stored the same working copy first
+			logger.debug("Working copy cache entry {} not stored: {}", key, e.getMessage());
+			FileUtils.deleteQuietly(tmp);
+		}
+		evict();
+		return entry;
+	}
+
+	private void checkoutNew(CmsTestRepository repo, long revision, File target) {
+		SvnOperationFactory op = repo.getSvnkitOp();
+		try {
+			SvnCheckout checkout = op.createCheckout();
+			checkout.setSingleTarget(SvnTarget.fromFile(target));
+			checkout.setSource(SvnTarget.fromURL(repo.getUrlSvnkit()));
+			checkout.setRevision(SVNRevision.create(revision));
+			checkout.run();
+		} catch (SVNException e) {
+			throw new RuntimeException("Failed to check out revision " + revision + " of test repository " + repo.getName(), e);
+		} finally {
+			op.dispose();
+		}
+	}
+
+	private void relocate(CmsTestRepository repo, File target, String from) {
+		SvnOperationFactory op = repo.getSvnkitOp();
+		try {
+			SvnRelocate relocate = op.createRelocate();
+			relocate.setSingleTarget(SvnTarget.fromFile(target));
+			relocate.setFromUrl(SVNURL.parseURIEncoded(from));
+			relocate.setToUrl(repo.getUrlSvnkit());
+			relocate.run();
+		} catch (SVNException e) {
+			throw new RuntimeException("Failed to relocate working copy " + target + " to " + repo.getUrl(), e);
+		} finally {
+			op.dispose();
+		}
+	}
+
+	/**
+	 * Removes entries that have not been used for a week, and abandoned temporary folders.
+	 */
+	private void evict() {
+		long now = System.currentTimeMillis();
+		File[] children = folder.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File f : children) {
+			if (now - f.lastModified() <= MAX_AGE_MILLIS) {
+				continue;
+			}
+			if (f.getName().startsWith(TMP_PREFIX)) {
+				FileUtils.deleteQuietly(f);
+				continue;
+			}
+			// Rename first so that concurrent copies fail cleanly instead of copying a half deleted entry
+			File evicted = new File(folder, TMP_PREFIX + "evicted-" + UUID.randomUUID());
+			if (f.renameTo(evicted)) {
+				FileUtils.deleteQuietly(evicted);
+			}
+		}
+	}
+
+}
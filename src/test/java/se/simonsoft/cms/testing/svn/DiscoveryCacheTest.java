@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class DiscoveryCacheTest {
+
+	@Test
+	public void testReadWrite() throws Exception {
+		File file = File.createTempFile("cms-testing-discovery", ".properties");
+		file.delete();
+		try {
+			DiscoveryCache empty = new DiscoveryCache(file);
+			assertNull(empty.getPath());
+			assertNull(empty.getUrl());
+			empty.setPath(new File("/home/cmsadmin/testsvn"));
+			empty.setUrl("http://localhost/svn/");
+
+			DiscoveryCache read = new DiscoveryCache(file);
+			assertEquals(new File("/home/cmsadmin/testsvn").getAbsoluteFile(), read.getPath());
+			assertEquals("http://localhost/svn/", read.getUrl());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		File file = File.createTempFile("cms-testing-discovery", ".properties");
+		file.delete();
+		try {
+			DiscoveryCache cache = new DiscoveryCache(file);
+			cache.setPath(new File("/home/cmsadmin/testsvn"));
+			cache.setUrl("http://localhost/svn/");
+			cache.invalidateUrl();
+			assertNull(cache.getUrl());
+
+			DiscoveryCache read = new DiscoveryCache(file);
+			assertNull("invalidation should be saved", read.getUrl());
+			assertNotNull("only the url should be invalidated", read.getPath());
+			read.invalidatePath();
+			assertNull(new DiscoveryCache(file).getPath());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testUnreadable() throws Exception {
+		File dir = File.createTempFile("cms-testing-discovery", "");
+		dir.delete();
+		dir.mkdir();
+		try {
+			// A folder can not be loaded as properties
+			DiscoveryCache cache = new DiscoveryCache(dir);
+			assertNull(cache.getPath());
+		} finally {
+			dir.delete();
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class DumpfileBuilderTest {
+
+	@Test
+	public void testRecords() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DumpfileBuilder dump = new DumpfileBuilder(out).uuid("9ff1b372-1b0e-41ec-946b-24d40082c707");
+		dump.revision("first").addDir("a").addFile("a/b.txt", "\u00e5\u00e4\u00f6").prop("p", "v");
+		dump.revision().copyFile("c.txt", "a/b.txt", 1).delete("a");
+		dump.close();
+		assertEquals(2, dump.getRevision());
+		assertEquals("SVN-fs-dump-format-version: 2\n\n"
+				+ "UUID: 9ff1b372-1b0e-41ec-946b-24d40082c707\n\n"
+				+ "Revision-number: 0\n"
+				+ "Prop-content-length: 56\n"
+				+ "Content-length: 56\n\n"
+				+ "K 8\nsvn:date\nV 27\n2012-09-25T19:07:32.000000Z\nPROPS-END\n\n"
+				+ "Revision-number: 1\n"
+				+ "Prop-content-length: 78\n"
+				+ "Content-length: 78\n\n"
+				+ "K 8\nsvn:date\nV 27\n2012-09-25T19:07:33.000000Z\nK 7\nsvn:log\nV 5\nfirst\nPROPS-END\n\n"
+				+ "Node-path: a\n"
+				+ "Node-kind: dir\n"
+				+ "Node-action: add\n"
+				+ "Prop-content-length: 10\n"
+				+ "Content-length: 10\n\n"
+				+ "PROPS-END\n\n\n"
+				+ "Node-path: a/b.txt\n"
+				+ "Node-kind: file\n"
+				+ "Node-action: add\n"
+				+ "Prop-content-length: 22\n"
+				+ "Text-content-length: 6\n"
+				+ "Content-length: 28\n\n"
+				+ "K 1\np\nV 1\nv\nPROPS-END\n\u00e5\u00e4\u00f6\n\n"
+				+ "Revision-number: 2\n"
+				+ "Prop-content-length: 56\n"
+				+ "Content-length: 56\n\n"
+				+ "K 8\nsvn:date\nV 27\n2012-09-25T19:07:34.000000Z\nPROPS-END\n\n"
+				+ "Node-path: c.txt\n"
+				+ "Node-kind: file\n"
+				+ "Node-action: add\n"
+				+ "Node-copyfrom-rev: 1\n"
+				+ "Node-copyfrom-path: a/b.txt\n\n\n\n"
+				+ "Node-path: a\n"
+				+ "Node-action: delete\n\n\n\n",
+				new String(out.toByteArray(), "UTF-8"));
+	}
+
+	@Test
+	public void testStream() throws IOException {
+		InputStream in = DumpfileBuilder.stream(new DumpfileBuilder.Generator() {
+			@Override
+			public void generate(DumpfileBuilder dump) throws IOException {
+				for (int i = 0; i < 10000; i++) {
+					dump.revision().addFile("f" + i, "content");
+				}
+			}
+		});
+		String dump = IOUtils.toString(in, "UTF-8");
+		assertTrue(dump.contains("Revision-number: 10000\n"));
+		assertTrue(dump.endsWith("Node-path: f9999\nNode-kind: file\nNode-action: add\n"
+				+ "Prop-content-length: 10\nText-content-length: 7\nContent-length: 17\n\nPROPS-END\ncontent\n\n"));
+	}
+
+	@Test
+	public void testCopyFromCurrentRevision() throws IOException {
+		DumpfileBuilder dump = new DumpfileBuilder(new ByteArrayOutputStream());
+		dump.revision().addDir("a");
+		dump.revision();
+		try {
+			dump.copyDir("b", "a", 2);
+			fail("should reject the revision that is being written as copy source");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		dump.copyDir("b", "a", 1);
+	}
+
+	@Test
+	public void testStreamError() throws IOException {
+		InputStream in = DumpfileBuilder.stream(new DumpfileBuilder.Generator() {
+			@Override
+			public void generate(DumpfileBuilder dump) throws IOException {
+				dump.addDir("no revision");
+			}
+		});
+		try {
+			IOUtils.toString(in, "UTF-8");
+			fail("should report the generator error to the reader");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class DumpfileStreamsTest {
+
+	private static final String CONTENT = "SVN-fs-dump-format-version: 2\n\n";
+
+	@Test
+	public void testPlain() throws Exception {
+		File file = File.createTempFile("cms-testing-", ".svndump");
+		try {
+			FileUtils.writeStringToFile(file, CONTENT, "UTF-8");
+			assertEquals(CONTENT, read(file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testGzip() throws Exception {
+		File file = File.createTempFile("cms-testing-", ".svndump.gz");
+		try {
+			OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+			out.write(CONTENT.getBytes("UTF-8"));
+			out.close();
+			assertEquals(CONTENT, read(file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testFirstRevision() throws Exception {
+		assertEquals(-1, DumpfileStreams.firstRevision(new ByteArrayInputStream(CONTENT.getBytes("UTF-8"))));
+		
+		ByteArrayOutputStream full = new ByteArrayOutputStream();
+		new DumpfileBuilder(full).uuid("9ff1b372-1b0e-41ec-946b-24d40082c707").revision("first").addDir("a").close();
+		assertEquals(0, DumpfileStreams.firstRevision(new ByteArrayInputStream(full.toByteArray())));
+		
+		ByteArrayOutputStream overlay = new ByteArrayOutputStream();
+		new DumpfileBuilder(overlay).incremental(5).revision("overlay").copyDir("b", "a", 4).close();
+		InputStream in = new ByteArrayInputStream(overlay.toByteArray());
+		assertEquals(5, DumpfileStreams.firstRevision(in));
+		assertEquals("Stream should be reset", overlay.toString("UTF-8"), IOUtils.toString(in, "UTF-8"));
+	}
+
+	private String read(File file) throws Exception {
+		InputStream in = DumpfileStreams.open(file.toPath());
+		try {
+			return IOUtils.toString(in, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import static org.junit.Assert.*;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LoadReportTest {
+
+	@Test
+	public void testJson() {
+		Map<LoadOperation, TimingStats> timings = new EnumMap<LoadOperation, TimingStats>(LoadOperation.class);
+		TimingStats reads = new TimingStats();
+		for (int i = 1; i <= 10; i++) {
+			reads.add(i * 1000000L);
+		}
+		timings.put(LoadOperation.READ, reads);
+		Map<LoadOperation, Long> errors = new EnumMap<LoadOperation, Long>(LoadOperation.class);
+		errors.put(LoadOperation.COMMIT, 2L);
+		LoadReport report = new LoadReport(4, 2000000000L, timings, errors);
+		assertEquals(5.0, report.getThroughput(LoadOperation.READ), 0.001);
+		assertEquals(0, report.get(LoadOperation.LOG).getCount());
+		assertEquals("{\n"
+				+ "  \"threads\": 4,\n"
+				+ "  \"elapsedMs\": 2000.000,\n"
+				+ "  \"operations\": {\n"
+				+ "    \"COMMIT\": {\"count\": 0, \"errors\": 2, \"throughputPerSecond\": 0.000, \"meanMs\": 0.000, \"p50Ms\": 0.000, \"p90Ms\": 0.000, \"p99Ms\": 0.000, \"maxMs\": 0.000},\n"
+				+ "    \"READ\": {\"count\": 10, \"errors\": 0, \"throughputPerSecond\": 5.000, \"meanMs\": 5.500, \"p50Ms\": 5.112, \"p90Ms\": 9.175, \"p99Ms\": 10.000, \"maxMs\": 10.000}\n"
+				+ "  }\n"
+				+ "}\n", report.toJson());
+	}
+
+}
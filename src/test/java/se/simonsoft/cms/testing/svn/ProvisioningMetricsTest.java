@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ProvisioningMetricsTest {
+
+	@Test
+	public void testMetricsSummary() {
+		ProvisioningMetrics metrics = new ProvisioningMetrics();
+		metrics.onPhase(ProvisioningPhase.CREATE, "test-1", 2000000L);
+		metrics.onPhase(ProvisioningPhase.CREATE, "test-2", 4000000L);
+		assertEquals(2, metrics.get(ProvisioningPhase.CREATE).getCount());
+		String summary = metrics.getSummary();
+		assertTrue(summary, summary.contains("CREATE"));
+		assertFalse("should only list recorded phases", summary.contains("LOAD"));
+	}
+
+}
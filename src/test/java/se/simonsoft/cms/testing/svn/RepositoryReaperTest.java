@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class RepositoryReaperTest {
+
+	private static final long HOUR = 3600000L;
+
+	@Test
+	public void testReap() throws Exception {
+		File parent = Files.createTempDirectory("cms-testing-reaper").toFile();
+		try {
+			long old = System.currentTimeMillis() - 2 * HOUR;
+			File orphan = repository(parent, "test-orphan.Caller", "12345@buildhost " + old);
+			File recent = repository(parent, "test-recent.Caller", "12345@buildhost " + System.currentTimeMillis());
+			File kept = repository(parent, "test-kept.Caller", "12345@buildhost " + old);
+			new File(kept, RepositoryReaper.KEEP_MARKER).createNewFile();
+			File released = repository(parent, "test-released.Caller", null);
+			File named = repository(parent, "named", "12345@buildhost " + old);
+
+			RepositoryTrash trash = new RepositoryTrash(2);
+			assertEquals(1, new RepositoryReaper(Collections.singletonList(parent), trash, HOUR).reap());
+			assertTrue(trash.flush(10000));
+			assertFalse(orphan.exists());
+			assertFalse("Lease should be removed with the repository", RepositoryLease.getLeaseFile(parent, orphan.getName()).exists());
+			assertTrue(recent.exists());
+			assertTrue(kept.exists());
+			assertTrue(released.exists());
+			assertTrue(named.exists());
+		} finally {
+			FileUtils.deleteQuietly(parent);
+		}
+	}
+
+	@Test
+	public void testReapHeld() throws Exception {
+		File parent = Files.createTempDirectory("cms-testing-reaper").toFile();
+		try {
+			File dir = repository(parent, "test-held.Caller", null);
+			RepositoryLease lease = RepositoryLease.acquire(parent, dir.getName(), 0);
+			try {
+				// Lease time can not be in the future, so use a zero max age
+				assertEquals(0, new RepositoryReaper(Collections.singletonList(parent), new RepositoryTrash(1), 0).reap());
+				assertTrue(dir.exists());
+			} finally {
+				lease.release(true);
+			}
+		} finally {
+			FileUtils.deleteQuietly(parent);
+		}
+	}
+
+	/**
+	 * @param owner lease file content, null for no lease file
+	 */
+	private File repository(File parent, String name, String owner) throws Exception {
+		File dir = new File(parent, name);
+		new File(dir, "db").mkdirs();
+		FileUtils.writeStringToFile(new File(dir, "format"), "5\n", "UTF-8");
+		if (owner != null) {
+			FileUtils.writeStringToFile(RepositoryLease.getLeaseFile(parent, name), owner, "UTF-8");
+		}
+		return dir;
+	}
+
+}
@@ -18,24 +18,60 @@ package se.simonsoft.cms.testing.svn;
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.tmatesoft.svn.core.SVNDirEntry;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNProperties;
 import org.tmatesoft.svn.core.SVNPropertyValue;
 import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.io.ISVNEditor;
 import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.wc.SVNRevision;
 import org.tmatesoft.svn.core.wc2.ISvnObjectReceiver;
+import org.tmatesoft.svn.core.wc2.SvnGetInfo;
 import org.tmatesoft.svn.core.wc2.SvnGetProperties;
+import org.tmatesoft.svn.core.wc2.SvnOperationFactory;
 import org.tmatesoft.svn.core.wc2.SvnTarget;
 
 public class SvnTestSetupTest {
 
+	private static final String DUMP_REVPROP = "SVN-fs-dump-format-version: 2\n"
+			+ "\n"
+			+ "UUID: 9ff1b372-1b0e-41ec-946b-24d40082c707\n"
+			+ "\n"
+			+ "Revision-number: 0\n"
+			+ "Prop-content-length: 73\n"
+			+ "Content-length: 73\n"
+			+ "\n"
+			+ "K 8\n"
+			+ "svn:date\n"
+			+ "V 27\n"
+			+ "2012-09-25T19:07:32.517877Z\n"
+			+ "K 4\n"
+			+ "test\n"
+			+ "V 3\n"
+			+ "yes\n"
+			+ "PROPS-END\n";
+
 	@After
 	public void tearDown() {
 		SvnTestSetup.getInstance().tearDown();
@@ -68,6 +104,14 @@ public class SvnTestSetupTest {
 		assertTrue("should be a subversion repository", new File(repo.getAdminPath(), "format").exists());
 	}
 	
+	@Test
+	public void testVerifyDerivedUrl() {
+		CmsTestRepository repo = SvnTestSetup.getInstance().getRepository();
+		String derived = repo.getUrl();
+		assertEquals(derived, CmsTestRepository.getUrl(repo.getSvnkit()));
+		assertEquals(derived, repo.verify().getUrl());
+	}
+	
 	@Test
 	public void testLoadDumpfile() throws SVNException {
 		String dump = "SVN-fs-dump-format-version: 2\n"
@@ -101,6 +145,55 @@ public class SvnTestSetupTest {
 		propget.run();
 	}
 
+	@Test
+	public void testLoadDumpfileCached() throws Exception {
+		File cache = File.createTempFile("cms-testing-dumpcache", "");
+		cache.delete();
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		setup.setDumpCache(cache);
+		try {
+			CmsTestRepository loaded = setup.getRepository().load(new ByteArrayInputStream(DUMP_REVPROP.getBytes()));
+			assertEquals("yes", loaded.getSvnkit().getRevisionPropertyValue(0, "test").getString());
+			// The cache folder also holds the eviction lock and temporary folders, all named with a leading dot
+			File[] entries = cache.listFiles(new FileFilter() {
+				@Override
+				public boolean accept(File f) {
+					return f.isDirectory() && !f.getName().startsWith(".");
+				}
+			});
+			assertEquals("should have cached the loaded repository", 1, entries.length);
+			CmsTestRepository cached = setup.getRepository().load(new ByteArrayInputStream(DUMP_REVPROP.getBytes()));
+			assertEquals("yes", cached.getSvnkit().getRevisionPropertyValue(0, "test").getString());
+			assertEquals(loaded.getSvnkit().getRepositoryUUID(true), cached.getSvnkit().getRepositoryUUID(true));
+		} finally {
+			setup.setDumpCache(null);
+			FileUtils.deleteDirectory(cache);
+		}
+	}
+
+	@Test
+	public void testLoadDumpfileCachedProfile() throws Exception {
+		File cache = Files.createTempDirectory("cms-testing-dumpcache").toFile();
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		setup.setDumpCache(cache);
+		try {
+			FsfsProfile[] profiles = { FsfsProfile.DEFAULT, FsfsProfile.THROWAWAY, FsfsProfile.DEFAULT };
+			for (FsfsProfile profile : profiles) {
+				setup.setProfile(profile);
+				CmsTestRepository repo = setup.getRepository().load(new ByteArrayInputStream(DUMP_REVPROP.getBytes()));
+				assertEquals("yes", repo.getSvnkit().getRevisionPropertyValue(0, "test").getString());
+				String conf = FileUtils.readFileToString(new File(repo.getAdminPath(), "db/fsfs.conf"), StandardCharsets.UTF_8);
+				assertEquals("Restored repository should keep its profile " + profile,
+						profile == FsfsProfile.THROWAWAY, conf.contains("enable-rep-sharing = false"));
+			}
+		} finally {
+			setup.setProfile(FsfsProfile.DEFAULT);
+			setup.setDumpCache(null);
+			setup.tearDown();
+			FileUtils.deleteDirectory(cache);
+		}
+	}
+	
 	@Test
 	public void testNamedRepository() {
 		CmsTestRepository repo = SvnTestSetup.getInstance().getRepository("myNamedRepo");
@@ -114,6 +207,489 @@ public class SvnTestSetupTest {
 		}
 	}
 	
+	@Test
+	public void testRepositoryPool() throws SVNException {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		setup.setPoolSize(2, 1);
+		try {
+			CmsTestRepository first = setup.getRepository();
+			CmsTestRepository named = setup.getRepository("myPooledRepo");
+			assertEquals("myPooledRepo", named.getAdminPath().getName());
+			assertTrue(named.getUrl().endsWith("/myPooledRepo"));
+			assertTrue("should be a subversion repository", new File(first.getAdminPath(), "format").exists());
+			assertNotNull(first.getSvnkit().info("/", SVNRevision.HEAD.getNumber()));
+			assertNotNull(named.getSvnkit().info("/", SVNRevision.HEAD.getNumber()));
+		} finally {
+			setup.setPoolSize(0);
+		}
+	}
+	
+	@Test
+	public void testTearDownAsync() {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		setup.setTearDownAsync(true);
+		try {
+			CmsTestRepository repo = setup.getRepository();
+			assertTrue(repo.getAdminPath().exists());
+			setup.tearDown();
+			assertFalse("should have moved the repository to trash", repo.getAdminPath().exists());
+		} finally {
+			setup.setTearDownAsync(false);
+		}
+	}
+	
+	@Test
+	public void testKeepArchive() throws Exception {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		File folder = Files.createTempDirectory("cms-testing-archive").toFile();
+		setup.setKeepArchive(folder);
+		try {
+			CmsTestRepository repo = setup.getRepository();
+			commitDir(repo.getSvnkit(), "investigate");
+			repo.keep();
+			setup.tearDown();
+			assertFalse("should have moved the repository out of the parent path", repo.getAdminPath().exists());
+			File archive = new File(folder, repo.getName() + ".svndump.gz");
+			for (int i = 0; i < 300 && !archive.exists(); i++) {
+				Thread.sleep(100);
+			}
+			assertTrue("should have archived to " + archive, archive.exists());
+			
+			CmsTestRepository restored = setup.restoreArchive(archive);
+			assertEquals(1, restored.getSvnkit().getLatestRevision());
+			assertEquals(SVNNodeKind.DIR, restored.getSvnkit().checkPath("investigate", 1));
+		} finally {
+			setup.setKeepArchive(null);
+			setup.tearDown();
+			FileUtils.deleteQuietly(folder);
+		}
+	}
+	
+	@Test
+	public void testTearDownPerThread() throws Exception {
+		final SvnTestSetup setup = SvnTestSetup.getInstance();
+		final CmsTestRepository[] other = new CmsTestRepository[1];
+		final CountDownLatch created = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				other[0] = setup.getRepository();
+				created.countDown();
+				try {
+					done.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		t.start();
+		created.await();
+		CmsTestRepository repo = setup.getRepository();
+		assertFalse("generated names should be unique", repo.getName().equals(other[0].getName()));
+		setup.tearDown();
+		assertFalse(repo.getAdminPath().exists());
+		assertTrue("should not tear down repositories from other running threads", other[0].getAdminPath().exists());
+		done.countDown();
+		t.join();
+		setup.tearDown();
+		assertFalse("should tear down repositories from threads that have ended", other[0].getAdminPath().exists());
+	}
+	
+	@Test
+	public void testLoadPathGzipLimited() throws Exception {
+		File gz = File.createTempFile("cms-testing-", ".svndump.gz");
+		try {
+			DumpfileBuilder dump = new DumpfileBuilder(new GZIPOutputStream(new FileOutputStream(gz)));
+			for (int r = 1; r <= 3; r++) {
+				dump.revision().addDir("dir" + r);
+			}
+			dump.close();
+			final List<Long> loaded = new ArrayList<Long>();
+			CmsTestRepository repo = SvnTestSetup.getInstance().getRepository().load(gz.toPath(), 2, new LoadListener() {
+				@Override
+				public void onRevisionLoaded(long revision, long originalRevision) {
+					loaded.add(revision);
+				}
+			});
+			assertTrue("got " + loaded, loaded.containsAll(Arrays.asList(1L, 2L)));
+			assertFalse("should stop at the limit", loaded.contains(3L));
+			assertEquals(2, repo.getSvnkit().getLatestRevision());
+			assertEquals(SVNNodeKind.DIR, repo.getSvnkit().checkPath("dir2", 2));
+		} finally {
+			gz.delete();
+		}
+	}
+	
+	@Test
+	public void testLoadGenerated() throws Exception {
+		CmsTestRepository repo = SvnTestSetup.getInstance().getRepository().load(DumpfileBuilder.stream(new DumpfileBuilder.Generator() {
+			@Override
+			public void generate(DumpfileBuilder dump) throws IOException {
+				dump.revision("tree").addDir("a");
+				for (int i = 0; i < 100; i++) {
+					dump.addFile("a/f" + i + ".xml", "<doc n=\"" + i + "\"/>").prop("cms:status", "In_Work");
+				}
+				dump.revision("branch").copyDir("b", "a", 1);
+				dump.revision("edit").changeFile("b/f0.xml", "<doc/>").changeProps("b/f1.xml", false).prop("cms:status", "Released");
+				dump.revision("remove").delete("a");
+			}
+		}));
+		SVNRepository svnkit = repo.getSvnkit();
+		assertEquals(4, svnkit.getLatestRevision());
+		assertEquals(SVNNodeKind.NONE, svnkit.checkPath("a", 4));
+		assertEquals(SVNNodeKind.FILE, svnkit.checkPath("b/f99.xml", 4));
+		SVNProperties props = new SVNProperties();
+		svnkit.getFile("b/f1.xml", 4, props, null);
+		assertEquals("Released", props.getStringValue("cms:status"));
+	}
+	
+	@Test
+	public void testGetWorkingCopy() throws Exception {
+		DumpfileBuilder.Generator fixture = new DumpfileBuilder.Generator() {
+			@Override
+			public void generate(DumpfileBuilder dump) throws IOException {
+				dump.uuid("0b6c3f5e-2d1a-4c8e-9f7b-5a4e3d2c1b0a");
+				dump.revision("first").addFile("a.xml", "<doc/>");
+				dump.revision("second").changeFile("a.xml", "<doc>2</doc>");
+			}
+		};
+		CmsTestRepository repo1 = SvnTestSetup.getInstance().getRepository().load(DumpfileBuilder.stream(fixture));
+		CmsTestRepository repo2 = SvnTestSetup.getInstance().getRepository().load(DumpfileBuilder.stream(fixture));
+		File wc1 = repo1.getWorkingCopy(1);
+		File wc2 = repo2.getWorkingCopy(1);
+		assertFalse("Each test should get its own copy", wc1.equals(wc2));
+		assertEquals("<doc/>", FileUtils.readFileToString(new File(wc1, "a.xml"), StandardCharsets.UTF_8));
+		assertEquals("<doc/>", FileUtils.readFileToString(new File(wc2, "a.xml"), StandardCharsets.UTF_8));
+		String key = repo1.getFixtureKey(1);
+		assertNotNull(key);
+		assertEquals("Same fixture and UUID should share the cached checkout", key, repo2.getFixtureKey(1));
+		assertTrue("Should have cached the checkout", new File(new File(System.getProperty("java.io.tmpdir"), "cms-testing-wc"), key).isDirectory());
+		assertEquals(repo1.getUrlSvnkit(), getWorkingCopyUrl(repo1, wc1));
+		assertEquals("Should have relocated the cached copy", repo2.getUrlSvnkit(), getWorkingCopyUrl(repo2, wc2));
+		
+		// After a commit the revision is not from the fixture and is checked out directly
+		repo2.commit(new CommitTree().file("b.xml", "<doc/>"), "not in fixture");
+		File wc3 = repo2.getWorkingCopy(3);
+		assertTrue(new File(wc3, "b.xml").exists());
+		
+		SvnTestSetup.getInstance().tearDown();
+		assertFalse("Working copies should be deleted at tearDown", wc1.exists());
+		assertFalse(wc3.exists());
+	}
+	
+	@Test
+	public void testLoadOverlay() throws Exception {
+		InputStream base = DumpfileBuilder.stream(new DumpfileBuilder.Generator() {
+			@Override
+			public void generate(DumpfileBuilder dump) throws IOException {
+				dump.revision("base").addDir("a").addFile("a/f.xml", "<doc/>");
+				dump.revision("base edit").changeFile("a/f.xml", "<doc>2</doc>");
+			}
+		});
+		DumpfileBuilder.Generator overlay = new DumpfileBuilder.Generator() {
+			@Override
+			public void generate(DumpfileBuilder dump) throws IOException {
+				dump.incremental(3).revision("overlay").copyDir("b", "a", 1);
+			}
+		};
+		CmsTestRepository repo = SvnTestSetup.getInstance().getRepository().load(base).loadOverlay(DumpfileBuilder.stream(overlay));
+		SVNRepository svnkit = repo.getSvnkit();
+		assertEquals(3, svnkit.getLatestRevision());
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		svnkit.getFile("b/f.xml", 3, null, content);
+		assertEquals("Copy should refer to the base revision", "<doc/>", content.toString("UTF-8"));
+		
+		try {
+			repo.loadOverlay(DumpfileBuilder.stream(overlay));
+			fail("Should reject an overlay that does not continue the history");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("expected 4"));
+		}
+		assertEquals(3, svnkit.getLatestRevision());
+	}
+	
+	@Test
+	public void testCommitTree() throws Exception {
+		CmsTestRepository repo = SvnTestSetup.getInstance().getRepository();
+		CommitTree tree = new CommitTree().dir("docs").prop("cms:class", "folder");
+		for (int i = 0; i < 25; i++) {
+			tree.file("docs/sub" + (i % 3) + "/f" + i + ".xml", "<doc n=\"" + i + "\"/>").prop("cms:status", "In_Work");
+		}
+		assertEquals(29, tree.size());
+		assertEquals(1, repo.commit(tree, "single"));
+		
+		CommitTree more = new CommitTree();
+		for (int i = 0; i < 25; i++) {
+			more.file("docs/sub" + (i % 3) + "/g" + i + ".xml", "<doc/>");
+		}
+		assertEquals("should reuse existing folders and commit in batches of 10", 4, repo.commit(more, "batched", 10));
+		
+		SVNRepository svnkit = repo.getSvnkit();
+		SVNProperties props = new SVNProperties();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		svnkit.getFile("docs/sub1/f1.xml", 1, props, content);
+		assertEquals("<doc n=\"1\"/>", content.toString("UTF-8"));
+		assertEquals("In_Work", props.getStringValue("cms:status"));
+		assertEquals(SVNNodeKind.FILE, svnkit.checkPath("docs/sub2/g23.xml", 4));
+	}
+	
+	@Test
+	public void testGetRepositories() throws Exception {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		List<CmsTestRepository> repos = setup.getRepositories(
+				new RepositorySpec("parallel1").load(new ByteArrayInputStream(DUMP_REVPROP.getBytes())),
+				new RepositorySpec().load(new DumpfileBuilder.Generator() {
+					@Override
+					public void generate(DumpfileBuilder dump) throws IOException {
+						dump.revision().addDir("a");
+					}
+				}));
+		assertEquals("parallel1", repos.get(0).getName());
+		assertEquals("yes", repos.get(0).getSvnkit().getRevisionPropertyValue(0, "test").getString());
+		assertEquals(1, repos.get(1).getSvnkit().getLatestRevision());
+		setup.tearDown();
+		assertFalse("should be registered for tearDown on the calling thread", repos.get(1).getAdminPath().exists());
+	}
+	
+	@Test
+	public void testGetRepositoriesLeaseOwner() {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		setup.getRepositories(new RepositorySpec("parallelOwner"));
+		long start = System.currentTimeMillis();
+		try {
+			setup.getRepository("parallelOwner");
+			fail("should detect that the test already has the name");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("already used by this test"));
+		}
+		assertTrue("should not wait for the lease timeout", System.currentTimeMillis() - start < 5000);
+		setup.tearDown();
+	}
+	
+	@Test
+	public void testGetRepositoriesRollback() {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		try {
+			setup.getRepositories(
+					new RepositorySpec("parallelOk"),
+					new RepositorySpec("parallelFail").load(new DumpfileBuilder.Generator() {
+						@Override
+						public void generate(DumpfileBuilder dump) throws IOException {
+							throw new IOException("broken fixture");
+						}
+					}));
+			fail("should fail when one of the repositories fails");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("parallelFail"));
+		}
+		assertFalse(new File(setup.getSvnParentPath(), "parallelOk").exists());
+		assertFalse(new File(setup.getSvnParentPath(), "parallelFail").exists());
+	}
+	
+	@Test
+	public void testSvnkitCached() throws Exception {
+		CmsTestRepository repo = SvnTestSetup.getInstance().getRepository().load(new ByteArrayInputStream(DUMP_REVPROP.getBytes()));
+		SVNRepository cached = repo.getSvnkitCached();
+		assertNotNull(cached.info("", 0));
+		assertNotNull(cached.info("", 0));
+		assertEquals(1, repo.getSvnkitCache().getHits());
+		repo.getSvnkitCache().setEnabled(false);
+		assertNotNull(cached.info("", 0));
+		assertEquals(1, repo.getSvnkitCache().getHits());
+		repo.getSvnkitCache().setEnabled(true);
+		assertEquals("yes", cached.getRevisionPropertyValue(0, "test").getString());
+		File hook = new File(repo.getAdminPath(), "hooks/pre-revprop-change");
+		FileUtils.writeStringToFile(hook, "#!/bin/sh\nexit 0\n", "UTF-8");
+		hook.setExecutable(true, false);
+		repo.getSvnkit().setRevisionPropertyValue(0, "test", SVNPropertyValue.create("changed"));
+		assertEquals("should not serve revision properties from cache", "changed", cached.getRevisionPropertyValue(0, "test").getString());
+	}
+	
+	@Test
+	public void testLoadGenerator() {
+		CmsTestRepository repo = SvnTestSetup.getInstance().getRepository();
+		LoadReport report = new LoadGenerator(repo).setThreads(2).setDuration(1000).setSeed(10, 100).run();
+		assertTrue(report.toString(), report.get(LoadOperation.READ).getCount() > 0);
+		assertEquals(report.toString(), 0, report.getErrors(LoadOperation.COMMIT));
+		assertTrue(report.toJson().contains("\"READ\""));
+	}
+	
+	@Test
+	public void testSvnkitPool() throws Exception {
+		final CmsTestRepository repo = SvnTestSetup.getInstance().getRepository().load(new ByteArrayInputStream(DUMP_REVPROP.getBytes()));
+		final SVNRepository[] other = new SVNRepository[1];
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				other[0] = repo.getSvnkitProviderPerThread().get();
+			}
+		});
+		t.start();
+		t.join();
+		SVNRepository mine = repo.getSvnkitProviderPerThread().get();
+		assertNotSame(other[0], mine);
+		assertSame(mine, repo.getSvnkitProviderPerThread().get());
+		assertEquals("yes", mine.getRevisionPropertyValue(0, "test").getString());
+		
+		SvnkitPool pool = repo.getSvnkitPool();
+		assertEquals("should have closed the connection of the thread that ended", 1, pool.getPerThreadCount());
+		SVNRepository pooled = pool.acquire();
+		pool.release(pooled);
+		assertSame(pooled, pool.acquire());
+		assertEquals(3, pool.getMisses());
+		assertEquals(2, pool.getHits());
+	}
+	
+	@Test
+	public void testNamedRepositoryStaleLease() throws Exception {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		File parent = setup.getSvnParentPath();
+		File abandoned = new File(parent, "myAbandonedRepo");
+		assertTrue(abandoned.mkdir());
+		FileUtils.writeStringToFile(RepositoryLease.getLeaseFile(parent, "myAbandonedRepo"), "12345@crashed 0", "UTF-8");
+		CmsTestRepository repo = setup.getRepository("myAbandonedRepo");
+		assertTrue("should have replaced the abandoned folder", new File(repo.getAdminPath(), "format").exists());
+	}
+	
+	@Test
+	public void testLocalMode() throws SVNException {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		setup.setLocal(true);
+		try {
+			CmsTestRepository repo = setup.getRepository().load(new ByteArrayInputStream(DUMP_REVPROP.getBytes()));
+			assertTrue("got " + repo.getUrl(), repo.getUrl().startsWith("file:/"));
+			assertEquals("file", repo.getUrlSvnkit().getProtocol());
+			assertEquals("yes", repo.getSvnkitProvider().get().getRevisionPropertyValue(0, "test").getString());
+		} finally {
+			setup.setLocal(false);
+		}
+	}
+	
+	@Test
+	public void testThrowawayParent() throws Exception {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		File parent = Files.createTempDirectory("cms-testing-throwaway").toFile();
+		setup.setLocal(true);
+		setup.setProfile(FsfsProfile.THROWAWAY);
+		setup.setThrowawayParent(parent, null);
+		try {
+			CmsTestRepository repo = setup.getRepository();
+			assertEquals(parent, repo.getAdminPath().getParentFile());
+			assertTrue("got " + repo.getUrl(), repo.getUrl().startsWith("file:/"));
+			String conf = FileUtils.readFileToString(new File(repo.getAdminPath(), "db/fsfs.conf"), StandardCharsets.UTF_8);
+			assertTrue(conf.contains("enable-rep-sharing = false"));
+			commitDir(repo.getSvnkit(), "a");
+			assertEquals(1, repo.getSvnkit().getLatestRevision());
+			
+			CmsTestRepository named = setup.getRepository("throwaway-named");
+			assertFalse("Named repositories stay in the svn parent path", parent.equals(named.getAdminPath().getParentFile()));
+		} finally {
+			setup.setThrowawayParent(null, null);
+			setup.setProfile(FsfsProfile.DEFAULT);
+			setup.setLocal(false);
+			setup.tearDown();
+			FileUtils.deleteQuietly(parent);
+		}
+	}
+	
+	@Test
+	public void testProvisioningDaemon() throws Exception {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		ProvisioningDaemon daemon = new ProvisioningDaemon(setup);
+		try {
+			setup.setDaemonPort(daemon.start(0));
+			CmsTestRepository repo = setup.getRepository();
+			assertNotNull(repo.getProvisioningClient());
+			assertEquals(1, daemon.getLeased());
+			commitDir(repo.getSvnkit(), "leased");
+			assertEquals(1, repo.getSvnkit().getLatestRevision());
+			setup.getRepository("daemonNamed");
+			try {
+				setup.getRepository("daemonNamed");
+				fail("The daemon should hold the name for this test, not for the connection thread");
+			} catch (RuntimeException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("already used by this test"));
+			}
+			setup.tearDown();
+			assertEquals(0, daemon.getLeased());
+			assertFalse(repo.getAdminPath().exists());
+		} finally {
+			setup.setDaemonPort(0);
+			daemon.close();
+		}
+	}
+	
+	@Test
+	public void testProvisioningDaemonFallback() throws Exception {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		ServerSocket unused = new ServerSocket(0);
+		unused.close();
+		setup.setDaemonPort(unused.getLocalPort());
+		try {
+			CmsTestRepository repo = setup.getRepository();
+			assertNull("Should create the repository locally", repo.getProvisioningClient());
+			assertTrue(repo.getAdminPath().exists());
+		} finally {
+			setup.setDaemonPort(0);
+		}
+	}
+	
+	@Test
+	public void testResetToBaseline() throws Exception {
+		SvnTestSetup setup = SvnTestSetup.getInstance();
+		setup.setLocal(true);
+		try {
+			resetToBaseline(setup.getRepository());
+		} finally {
+			setup.setLocal(false);
+		}
+	}
+	
+	@Test
+	public void testResetToBaselineHttp() throws Exception {
+		resetToBaseline(SvnTestSetup.getInstance().getRepository());
+	}
+	
+	private void resetToBaseline(CmsTestRepository repo) throws Exception {
+		commitDir(repo.getSvnkit(), "base");
+		repo.setBaseline();
+		assertEquals(1, repo.getBaseline());
+		commitDir(repo.getSvnkit(), "test1");
+		repo.commit(new CommitTree().file("test1.xml", "<doc>same</doc>"), "content that is committed again after reset");
+		assertEquals(3, repo.getSvnkit().getLatestRevision());
+		repo.resetToBaseline();
+		assertEquals(1, repo.getSvnkit().getLatestRevision());
+		assertEquals(SVNNodeKind.NONE, repo.getSvnkit().checkPath("test1", -1));
+		commitDir(repo.getSvnkit(), "test2");
+		assertEquals(SVNNodeKind.DIR, repo.getSvnkit().checkPath("test2", 2));
+		// Must not be shared with the representation of the removed revision
+		repo.commit(new CommitTree().file("test2.xml", "<doc>same</doc>"), "same content as before reset");
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		repo.getSvnkit().getFile("test2.xml", 3, null, content);
+		assertEquals("<doc>same</doc>", content.toString("UTF-8"));
+	}
+	
+	private SVNURL getWorkingCopyUrl(CmsTestRepository repo, File wc) throws SVNException {
+		SvnOperationFactory op = repo.getSvnkitOp();
+		try {
+			SvnGetInfo info = op.createGetInfo();
+			info.setSingleTarget(SvnTarget.fromFile(wc));
+			return info.run().getUrl();
+		} finally {
+			op.dispose();
+		}
+	}
+	
+	private void commitDir(SVNRepository repository, String path) throws SVNException {
+		ISVNEditor editor = repository.getCommitEditor("add " + path, null);
+		editor.openRoot(-1);
+		editor.addDir(path, null, -1);
+		editor.closeDir();
+		editor.closeDir();
+		editor.closeEdit();
+	}
+	
 	@Test
 	@Ignore // leaves a test repo every time
 	public void testNamedRepositoryKeep() {
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+import org.tmatesoft.svn.core.ISVNDirEntryHandler;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNProperties;
+
+public class SvnkitCacheTest {
+
+	private static class CountingBackend implements SvnkitCache.Backend {
+
+		private int calls = 0;
+		private int downloads = 0;
+		private long head = 5;
+		private String location = "";
+
+		@Override
+		public String getRepositoryPath(String path) {
+			return path.startsWith("/") ? path : location + "/" + path;
+		}
+
+		@Override
+		public long getLatestRevision() {
+			return head;
+		}
+
+		@Override
+		public SVNDirEntry info(String path, long revision) {
+			calls++;
+			return null;
+		}
+
+		@Override
+		public long getFile(String path, long revision, SVNProperties properties, OutputStream contents) throws SVNException {
+			calls++;
+			if (properties != null) {
+				properties.put("cms:status", "Released");
+			}
+			if (contents != null) {
+				downloads++;
+				try {
+					contents.write((path + "@" + revision).getBytes("UTF-8"));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return revision;
+		}
+
+		@Override
+		public long getDir(String path, long revision, SVNProperties properties, ISVNDirEntryHandler handler) {
+			calls++;
+			return revision;
+		}
+
+	}
+
+	@Test
+	public void testFixedRevision() throws Exception {
+		SvnkitCache cache = new SvnkitCache(1024 * 1024);
+		CountingBackend backend = new CountingBackend();
+		assertEquals("a.xml@3", getFile(cache, backend, "a.xml", 3));
+		assertEquals("a.xml@3", getFile(cache, backend, "a.xml", 3));
+		assertNull(cache.info(backend, "missing", 3));
+		assertNull(cache.info(backend, "missing", 3));
+		assertEquals(2, backend.calls);
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testHead() throws Exception {
+		SvnkitCache cache = new SvnkitCache(1024 * 1024);
+		CountingBackend backend = new CountingBackend();
+		assertEquals("a.xml@5", getFile(cache, backend, "a.xml", -1));
+		assertEquals("a.xml@5", getFile(cache, backend, "a.xml", 5));
+		backend.head = 6;
+		assertEquals("should revalidate head", "a.xml@6", getFile(cache, backend, "a.xml", -1));
+		assertEquals(2, backend.calls);
+	}
+
+	@Test
+	public void testRepositoryPath() throws Exception {
+		SvnkitCache cache = new SvnkitCache(1024 * 1024);
+		CountingBackend backend = new CountingBackend();
+		getFile(cache, backend, "a.xml", 3);
+		getFile(cache, backend, "/a.xml", 3);
+		assertEquals("same node by relative and absolute path", 1, backend.calls);
+		backend.location = "/sub";
+		getFile(cache, backend, "a.xml", 3);
+		assertEquals("other node after the session location changed", 2, backend.calls);
+	}
+
+	@Test
+	public void testPropertiesOnly() throws Exception {
+		SvnkitCache cache = new SvnkitCache(1024 * 1024);
+		CountingBackend backend = new CountingBackend();
+		SVNProperties props = new SVNProperties();
+		cache.getFile(backend, "a.xml", 3, props, null);
+		cache.getFile(backend, "a.xml", 3, new SVNProperties(), null);
+		assertEquals("Released", props.getStringValue("cms:status"));
+		assertEquals(1, backend.calls);
+		assertEquals("should not download content for properties", 0, backend.downloads);
+		getFile(cache, backend, "b.xml", 3);
+		cache.getFile(backend, "b.xml", 3, props, null);
+		assertEquals("properties from the cached file", 2, backend.calls);
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		SvnkitCache cache = new SvnkitCache(1000);
+		CountingBackend backend = new CountingBackend();
+		for (int i = 0; i < 10; i++) {
+			getFile(cache, backend, "f" + i, 1);
+		}
+		assertTrue("got " + cache.getBytes(), cache.getBytes() <= 1000);
+		assertTrue(cache.getCount() < 10);
+		getFile(cache, backend, "f9", 1);
+		assertEquals("most recent should be kept", 10, backend.calls);
+		getFile(cache, backend, "f0", 1);
+		assertEquals("least recent should be evicted", 11, backend.calls);
+	}
+
+	@Test
+	public void testDisabledAndCleared() throws Exception {
+		SvnkitCache cache = new SvnkitCache(1024 * 1024);
+		CountingBackend backend = new CountingBackend();
+		getFile(cache, backend, "a.xml", 2);
+		getFile(cache, backend, "a.xml", 2);
+		assertEquals(1, backend.calls);
+		cache.setEnabled(false);
+		getFile(cache, backend, "a.xml", 2);
+		assertEquals(2, backend.calls);
+		cache.setEnabled(true);
+		cache.clear();
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getBytes());
+	}
+
+	private String getFile(SvnkitCache cache, CountingBackend backend, String path, long revision) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cache.getFile(backend, path, revision, null, out);
+		return out.toString("UTF-8");
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2009-2017 Simonsoft Nordic AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.simonsoft.cms.testing.svn;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TimingStatsTest {
+
+	@Test
+	public void testPercentiles() {
+		TimingStats stats = new TimingStats();
+		for (int i = 100; i > 0; i--) {
+			stats.add(i * 1000L);
+		}
+		assertEquals(100, stats.getCount());
+		assertEquals(50500, stats.getMean());
+		assertEquals(1000, stats.getPercentile(0));
+		assertEquals(50000, stats.getPercentile(50), 50000 * 0.04);
+		assertEquals(90000, stats.getPercentile(90), 90000 * 0.04);
+		assertEquals(99000, stats.getPercentile(99), 99000 * 0.04);
+		assertEquals(100000, stats.getMax());
+		stats.add(500L);
+		assertEquals("min is exact", 500, stats.getPercentile(0));
+	}
+
+	@Test
+	public void testBuckets() {
+		assertEquals(31, TimingStats.getBucket(31));
+		assertEquals(31, TimingStats.getUpperBound(31));
+		for (long v : new long[] { 32, 63, 64, 1000, 123456789L, Long.MAX_VALUE }) {
+			int bucket = TimingStats.getBucket(v);
+			assertTrue("upper bound of " + v, TimingStats.getUpperBound(bucket) >= v);
+			assertTrue("lower bound of " + v, bucket == 0 || TimingStats.getUpperBound(bucket - 1) < v);
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		TimingStats stats = new TimingStats();
+		assertEquals(0, stats.getCount());
+		assertEquals(0, stats.getMean());
+		assertEquals(0, stats.getPercentile(50));
+	}
+
+}